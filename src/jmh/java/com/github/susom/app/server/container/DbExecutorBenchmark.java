@@ -0,0 +1,104 @@
+/*
+ * Copyright 2026 The Board of Trustees of The Leland Stanford Junior University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.susom.app.server.container;
+
+import com.github.susom.app.server.services.CreateSchema;
+import com.github.susom.app.server.services.MessageDao;
+import com.github.susom.database.Config;
+import com.github.susom.database.DatabaseProvider;
+import com.github.susom.database.DatabaseProvider.Pool;
+import io.vertx.core.Vertx;
+import java.util.HashSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compare running transactions on the platform worker pool with running
+ * them on virtual threads, under many more concurrent callers than there are
+ * connections. An in-memory database is much faster than a real one, so each
+ * transaction also waits a little to simulate network and disk latency.
+ * The virtual mode requires running the benchmark on Java 21 or later.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Threads(256)
+@Fork(1)
+public class DbExecutorBenchmark {
+  @Param({ "platform", "virtual" })
+  public String threads;
+  @Param({ "10", "50" })
+  public int poolSize;
+  @Param({ "2" })
+  public int latencyMillis;
+  private Vertx vertx;
+  private Pool pool;
+  private DbExecutor executor;
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception {
+    Config config = Config.from().value("database.url", "jdbc:hsqldb:mem:executor-bench-" + System.nanoTime())
+        .value("database.user", "SA").value("database.password", "")
+        .value("database.pool.size", Integer.toString(poolSize)).get();
+    CreateSchema.run(new HashSet<>(), config);
+
+    vertx = Vertx.vertx();
+    pool = DatabaseProvider.createPool(config);
+    executor = new DbExecutor(vertx, DatabaseProvider.fromPool(pool), "bench-db", poolSize, 100000,
+        "virtual".equals(threads));
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    executor.close();
+    vertx.close();
+    pool.poolShutdown.close();
+  }
+
+  @Benchmark
+  public String findMessage() throws Exception {
+    CompletableFuture<String> message = new CompletableFuture<>();
+    executor.transact(null, 60000, dbs -> {
+      MessageDao.Message result = new MessageDao(dbs).findMessageById(1000L + ThreadLocalRandom.current().nextInt(2));
+      Thread.sleep(latencyMillis);
+      return result.message;
+    }, result -> {
+      if (result.succeeded()) {
+        message.complete(result.result());
+      } else {
+        message.completeExceptionally(result.cause());
+      }
+    });
+    return message.get(60, TimeUnit.SECONDS);
+  }
+}
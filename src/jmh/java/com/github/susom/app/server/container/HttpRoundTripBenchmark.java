@@ -0,0 +1,152 @@
+/*
+ * Copyright 2026 The Board of Trustees of The Leland Stanford Junior University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.susom.app.server.container;
+
+import com.github.susom.app.server.services.CreateSchema;
+import com.github.susom.database.Config;
+import com.github.susom.database.DatabaseProvider;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.ext.web.Router;
+import java.net.ServerSocket;
+import java.security.SecureRandom;
+import java.util.HashSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Full HTTP round trips against an in-process server deployed the same way
+ * as Main, backed by an embedded in-memory HSQLDB. The application routes
+ * are mounted without authentication so we measure our own code rather
+ * than the login flow.
+ *
+ * <p>The number of verticle instances is a parameter, so comparing results
+ * for 1..N instances shows how well throughput scales across cores.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Threads(32)
+@Fork(1)
+public class HttpRoundTripBenchmark {
+  @Param({ "1", "2", "4", "8" })
+  public int instances;
+  private Vertx vertx;
+  private Vertx clientVertx;
+  private AppServices services;
+  private HttpClient client;
+  private int port;
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception {
+    port = freePort();
+    Config config = Config.from().value("database.url", "jdbc:hsqldb:mem:http-bench-" + System.nanoTime())
+        .value("database.user", "SA").value("database.password", "")
+        .value("listen.url", "http://localhost:" + port).value("app.context", "bench")
+        .value("healthcheck.interval.seconds", "-1").get();
+    CreateSchema.run(new HashSet<>(), config);
+
+    vertx = Vertx.vertx();
+    services = new AppServices(vertx, config, DatabaseProvider.createPool(config), new SecureRandom());
+    services.register(vertx);
+    services.markReady();
+
+    CompletableFuture<String> deployed = new CompletableFuture<>();
+    vertx.deployVerticle(UnauthenticatedAppVerticle.class.getName(), new DeploymentOptions().setInstances(instances),
+        result -> {
+          if (result.succeeded()) {
+            deployed.complete(result.result());
+          } else {
+            deployed.completeExceptionally(result.cause());
+          }
+        });
+    deployed.get(30, TimeUnit.SECONDS);
+
+    // Use a separate Vert.x for the client so it does not compete for the server event loops
+    clientVertx = Vertx.vertx();
+    client = clientVertx.createHttpClient(new HttpClientOptions().setKeepAlive(true).setMaxPoolSize(64));
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    client.close();
+    clientVertx.close();
+    vertx.close();
+    services.close();
+  }
+
+  @Benchmark
+  public int secretCached() throws Exception {
+    return get("/bench/api/v1/secret?id=1000");
+  }
+
+  @Benchmark
+  public int secretNoId() throws Exception {
+    return get("/bench/api/v1/secret");
+  }
+
+  @Benchmark
+  public int secretsBulk() throws Exception {
+    return get("/bench/api/v1/secrets?id=1000&id=1001&id=1002&id=999");
+  }
+
+  private int get(String uri) throws Exception {
+    CompletableFuture<Integer> status = new CompletableFuture<>();
+    client.get(port, "localhost", uri, response -> response.bodyHandler(body -> status.complete(response.statusCode())))
+        .exceptionHandler(status::completeExceptionally).end();
+    int code = status.get(30, TimeUnit.SECONDS);
+    if (code != 200) {
+      throw new IllegalStateException("Unexpected status " + code + " for " + uri);
+    }
+    return code;
+  }
+
+  private static int freePort() throws Exception {
+    try (ServerSocket socket = new ServerSocket(0)) {
+      return socket.getLocalPort();
+    }
+  }
+
+  /**
+   * Mount the application routes directly, without authentication.
+   */
+  public static class UnauthenticatedAppVerticle extends AppVerticle {
+    @Override
+    protected Router authenticatedRouter(AppServices services, Router root) {
+      Router app = Router.router(vertx);
+      root.mountSubRouter(services.context(), app);
+      return app;
+    }
+  }
+}
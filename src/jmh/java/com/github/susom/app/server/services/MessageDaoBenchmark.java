@@ -0,0 +1,112 @@
+/*
+ * Copyright 2026 The Board of Trustees of The Leland Stanford Junior University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.susom.app.server.services;
+
+import com.github.susom.database.Config;
+import com.github.susom.database.DatabaseProvider;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measure the MessageDao operations against an embedded, in-memory HSQLDB.
+ * Each insert operation commits, as it would in the application, so the
+ * cost of the commit is included and the table grows as it really would.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MessageDaoBenchmark {
+  private static final int EXISTING_ROWS = 10000;
+  private DatabaseProvider dbp;
+  private MessageDao messageDao;
+  private MessageDao cachedMessageDao;
+  private List<Long> ids;
+  private List<String> batch;
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception {
+    Config config = Config.from().value("database.url", "jdbc:hsqldb:mem:dao-bench-" + System.nanoTime())
+        .value("database.user", "SA").value("database.password", "").get();
+    CreateSchema.run(new HashSet<>(), config);
+
+    dbp = DatabaseProvider.fromDriverManager(config).create();
+    messageDao = new MessageDao(dbp);
+    cachedMessageDao = new MessageDao(dbp, new MessageCache(EXISTING_ROWS, 1, 1, TimeUnit.HOURS));
+
+    batch = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      batch.add("Benchmark message " + i);
+    }
+    ids = new ArrayList<>();
+    for (int i = 0; i < EXISTING_ROWS / batch.size(); i++) {
+      ids.addAll(messageDao.addMessages(batch));
+    }
+    dbp.get().commitNow();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    dbp.rollbackAndClose();
+  }
+
+  @Benchmark
+  public long addMessage() {
+    long id = messageDao.addMessage("Benchmark message");
+    dbp.get().commitNow();
+    return id;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(100)
+  public List<Long> addMessagesBatch() {
+    List<Long> added = messageDao.addMessages(batch);
+    dbp.get().commitNow();
+    return added;
+  }
+
+  @Benchmark
+  public MessageDao.Message findMessageById() {
+    return messageDao.findMessageById(randomId());
+  }
+
+  @Benchmark
+  public MessageDao.Message findMessageByIdCached() {
+    return cachedMessageDao.findMessageById(randomId());
+  }
+
+  private Long randomId() {
+    return ids.get(ThreadLocalRandom.current().nextInt(ids.size()));
+  }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2026 The Board of Trustees of The Leland Stanford Junior University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.susom.app.server.services;
+
+import com.github.susom.database.Config;
+import com.github.susom.database.DatabaseProvider;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compare query latency of the in-memory search index with the LIKE scan
+ * it replaces, over a table of synthetic messages. Words are drawn from a
+ * skewed (Zipf-like) vocabulary, so queries include both common and rare
+ * words. Both approaches return the newest 20 matches, though the index
+ * ranks by relevance first.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class SearchBenchmark {
+  private static final Logger log = LoggerFactory.getLogger(SearchBenchmark.class);
+  private static final int VOCABULARY = 20000;
+  private static final int PAGE = 20;
+  @Param({ "1000000" })
+  public int rows;
+  private DatabaseProvider dbp;
+  private MessageSearchIndex index;
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception {
+    Config config = Config.from().value("database.url", "jdbc:hsqldb:mem:search-bench-" + System.nanoTime())
+        .value("database.user", "SA").value("database.password", "").get();
+    CreateSchema.run(new HashSet<>(), config);
+    dbp = DatabaseProvider.fromDriverManager(config).create();
+
+    Random random = new Random(42);
+    MessageDao messageDao = new MessageDao(dbp);
+    List<String> batch = new ArrayList<>();
+    for (int i = 0; i < rows; i++) {
+      StringBuilder message = new StringBuilder();
+      int words = 5 + random.nextInt(25);
+      for (int w = 0; w < words; w++) {
+        message.append(w == 0 ? "" : " ").append(word(zipf(random)));
+      }
+      batch.add(message.toString());
+      if (batch.size() == 1000) {
+        messageDao.addMessages(batch);
+        batch.clear();
+      }
+    }
+    messageDao.addMessages(batch);
+
+    // Build the index the same way the application does at startup
+    long start = System.nanoTime();
+    index = new MessageSearchIndex();
+    long[] afterId = { 0 };
+    int count;
+    do {
+      count = messageDao.forEachMessageAfter(afterId[0], 10000, message -> {
+        index.add(message);
+        afterId[0] = message.messageId;
+      });
+    } while (count == 10000);
+    log.info("Indexed {} messages ({} words) in {}ms", index.size(), index.termCount(),
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    dbp.rollbackAndClose();
+  }
+
+  @Benchmark
+  public MessageSearchIndex.Results indexCommonWord() {
+    return index.search(word(ThreadLocalRandom.current().nextInt(10)), 0, PAGE);
+  }
+
+  @Benchmark
+  public MessageSearchIndex.Results indexRareWord() {
+    return index.search(word(1000 + ThreadLocalRandom.current().nextInt(VOCABULARY - 1000)), 0, PAGE);
+  }
+
+  @Benchmark
+  public MessageSearchIndex.Results indexTwoWords() {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    return index.search(word(random.nextInt(100)) + " " + word(100 + random.nextInt(1000)), 0, PAGE);
+  }
+
+  @Benchmark
+  public List<Long> likeCommonWord() {
+    return like(word(ThreadLocalRandom.current().nextInt(10)));
+  }
+
+  @Benchmark
+  public List<Long> likeRareWord() {
+    return like(word(1000 + ThreadLocalRandom.current().nextInt(VOCABULARY - 1000)));
+  }
+
+  private List<Long> like(String word) {
+    return dbp.get().toSelect("select app_message_id from app_message where lower(message) like ?"
+        + " order by app_message_id desc").argString("%" + word + "%").withMaxRows(PAGE).queryLongs();
+  }
+
+  private static String word(int rank) {
+    // Delimited so one word is never a substring of another, keeping LIKE results exact
+    return "w" + rank + "x";
+  }
+
+  private static int zipf(Random random) {
+    // Inverse transform for an approximately Zipf distribution with exponent 1
+    return (int) Math.min(VOCABULARY - 1, Math.floor(Math.exp(random.nextDouble() * Math.log(VOCABULARY))) - 1);
+  }
+}
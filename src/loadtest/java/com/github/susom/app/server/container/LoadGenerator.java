@@ -0,0 +1,516 @@
+/*
+ * Copyright 2026 The Board of Trustees of The Leland Stanford Junior University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.susom.app.server.container;
+
+import com.github.susom.app.server.services.CreateSchema;
+import com.github.susom.database.Config;
+import com.github.susom.database.ConfigFrom;
+import com.github.susom.database.DatabaseProvider;
+import com.sun.management.GarbageCollectionNotificationInfo;
+import io.vertx.core.Context;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Vertx;
+import io.vertx.core.VertxOptions;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpClientRequest;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.NotificationEmitter;
+import javax.management.openmbean.CompositeData;
+
+/**
+ * Drive a steady, open-model load against a complete in-process server
+ * (embedded in-memory HSQLDB, fake security) for as long as you like, and
+ * report latency, errors, garbage collection and heap use as it goes.
+ * Run it with the loadtest profile, for example:
+ *
+ * <pre>
+ * mvn -Ploadtest -DskipTests verify -Dloadtest.args="loadtest.duration.seconds=3600 loadtest.rate.secret=2000"
+ * </pre>
+ *
+ * <p>Requests are started on a fixed schedule (loadtest.rate.* per second)
+ * whether or not earlier ones have completed, the way independent users
+ * behave, rather than each client waiting for its previous response. Each
+ * request's latency is measured from when it was scheduled to start, so
+ * time spent queued behind a stall counts against the server instead of
+ * being hidden (coordinated omission). The time from actually sending the
+ * request is reported alongside as the service time. Percentiles are the
+ * upper bounds of {@link LatencyHistogram} buckets, so they round up.</p>
+ *
+ * <p>The client and server share this JVM, so the garbage collection and
+ * heap numbers cover both; the client allocates little per request, and
+ * the trend over a long run is what matters.</p>
+ */
+public class LoadGenerator {
+  private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+  private static final String[] PERCENTILE_LABELS = { "p50", "p90", "p99", "p99.9" };
+  private final Config config;
+  private final List<Endpoint> endpoints = new ArrayList<>();
+  private final GcMonitor gc = new GcMonitor();
+  private final AtomicLong outstanding = new AtomicLong();
+  private final long maxOutstanding;
+  private final long timeoutMillis;
+  private volatile boolean measuring;
+  private volatile boolean running = true;
+
+  private LoadGenerator(Config config) {
+    this.config = config;
+    maxOutstanding = config.getLong("loadtest.max.outstanding", 10000);
+    timeoutMillis = config.getLong("loadtest.timeout.millis", 10000);
+  }
+
+  public static void main(String[] args) throws Exception {
+    // Arguments like loadtest.rate.secret=2000 take priority over system properties,
+    // which take priority over the defaults for the server
+    ConfigFrom from = Config.from();
+    for (String arg : args) {
+      int equals = arg.indexOf('=');
+      if (equals < 1) {
+        System.err.println("Expecting arguments like key=value but got: " + arg);
+        System.exit(2);
+      }
+      from.value(arg.substring(0, equals), arg.substring(equals + 1));
+    }
+    Config config = from.systemProperties()
+        .value("database.url", "jdbc:hsqldb:mem:loadtest-" + System.nanoTime())
+        .value("database.user", "SA").value("database.password", "")
+        .value("listen.url", "http://localhost:" + freePort())
+        .value("insecure.fake.security", "yes").value("insecure.dev.mode", "yes").value("static.in.memory", "yes")
+        .value("healthcheck.interval.seconds", "-1").get();
+    System.exit(new LoadGenerator(config).run());
+  }
+
+  /**
+   * @return the process exit code, non-zero if there were too many errors
+   */
+  private int run() throws Exception {
+    CreateSchema.run(new HashSet<>(), config);
+
+    // Start the server the same way Main does
+    Vertx vertx = Vertx.vertx();
+    AppServices services = new AppServices(vertx, config, DatabaseProvider.createPool(config), new SecureRandom());
+    services.register(vertx);
+    services.markReady();
+    int port = services.listen().port();
+    int instances = config.getInteger("http.instances", Runtime.getRuntime().availableProcessors());
+    CompletableFuture<String> deployed = new CompletableFuture<>();
+    vertx.deployVerticle(AppVerticle.class.getName(), new DeploymentOptions().setInstances(instances), result -> {
+      if (result.succeeded()) {
+        deployed.complete(result.result());
+      } else {
+        deployed.completeExceptionally(result.cause());
+      }
+    });
+    deployed.get(60, TimeUnit.SECONDS);
+
+    String base = services.context();
+    addEndpoint("secret", 500, "/api/v1/secret?id=1000,/api/v1/secret?id=1001,/api/v1/secret", base);
+    addEndpoint("me", 100, "/me", base);
+    addEndpoint("static", 200, "/,/assets/js/security.js", base);
+
+    // A separate Vert.x for the clients, so they do not compete for the server event loops. Each
+    // driver has its own event loop, connections and login session, and runs a share of the rates.
+    int drivers = config.getInteger("loadtest.drivers", 2);
+    Vertx clientVertx = Vertx.vertx(new VertxOptions().setEventLoopPoolSize(drivers));
+    int connections = config.getInteger("loadtest.connections", 64);
+    List<Driver> started = new ArrayList<>();
+    for (int i = 0; i < drivers; i++) {
+      Driver driver = new Driver(clientVertx, port, Math.max(1, connections / drivers), drivers);
+      driver.login(base + "/me").get(60, TimeUnit.SECONDS);
+      started.add(driver);
+    }
+
+    long warmupSeconds = config.getLong("loadtest.warmup.seconds", 10);
+    long durationSeconds = config.getLong("loadtest.duration.seconds", 60);
+    long reportSeconds = config.getLong("loadtest.report.seconds", 10);
+    System.out.println("Load test of http://localhost:" + port + base + " with " + instances
+        + " server instances and " + drivers + " client drivers for " + warmupSeconds + "s warm up + "
+        + durationSeconds + "s");
+    for (Endpoint endpoint : endpoints) {
+      System.out.println("  " + endpoint.name + " at " + endpoint.rate + "/s: " + String.join(" ", endpoint.paths));
+    }
+
+    for (Driver driver : started) {
+      driver.start();
+    }
+    long start = System.nanoTime();
+    long measureStart = start + TimeUnit.SECONDS.toNanos(warmupSeconds);
+    long end = measureStart + TimeUnit.SECONDS.toNanos(durationSeconds);
+    long nextReport = start + TimeUnit.SECONDS.toNanos(reportSeconds);
+    while (System.nanoTime() < end) {
+      if (!measuring && System.nanoTime() >= measureStart) {
+        measuring = true;
+        gc.resetTotals();
+      }
+      long sleepNanos = Math.min(nextReport, end) - System.nanoTime();
+      if (sleepNanos > 0) {
+        TimeUnit.NANOSECONDS.sleep(Math.min(sleepNanos, TimeUnit.SECONDS.toNanos(1)));
+      }
+      if (System.nanoTime() >= nextReport) {
+        report(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) + "s"
+            + (measuring ? "" : " (warm up)"), false);
+        nextReport += TimeUnit.SECONDS.toNanos(reportSeconds);
+      }
+    }
+
+    // Stop starting requests and give the ones in flight a chance to finish
+    running = false;
+    long drainUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    while (outstanding.get() > 0 && System.nanoTime() < drainUntil) {
+      Thread.sleep(10);
+    }
+    measuring = false;
+    double errorPercent = report("Total over " + durationSeconds + "s", true);
+
+    clientVertx.close();
+    vertx.close();
+    services.close();
+
+    double maxErrorPercent = Double.parseDouble(config.getString("loadtest.max.error.percent", "1"));
+    if (errorPercent > maxErrorPercent) {
+      System.out.println(String.format("FAILED: %.3f%% of requests failed (more than %.3f%%)", errorPercent,
+          maxErrorPercent));
+      return 1;
+    }
+    return 0;
+  }
+
+  /**
+   * Print one line per endpoint plus one for memory.
+   *
+   * @param total true for the whole measurement period, false for the interval since the last report
+   * @return the percentage of requests that failed
+   */
+  private double report(String title, boolean total) {
+    StringBuilder out = new StringBuilder(title).append('\n');
+    long requests = 0;
+    long failures = 0;
+    for (Endpoint endpoint : endpoints) {
+      Window window = total ? endpoint.total : endpoint.interval.getAndSet(new Window());
+      long count = window.ok.sum() + window.failed.sum();
+      requests += count;
+      failures += window.failed.sum();
+      out.append(String.format("  %-8s %9d ok %7d failed ", endpoint.name, window.ok.sum(), window.failed.sum()));
+      // Percentiles are bucket upper bounds, which can be beyond the slowest request
+      for (int i = 0; i < PERCENTILES.length; i++) {
+        out.append(' ').append(PERCENTILE_LABELS[i]).append(' ')
+            .append(millis(Math.min(window.latency.percentileNanos(PERCENTILES[i]), window.maxNanos.get())));
+      }
+      out.append(" max ").append(millis(window.maxNanos.get()))
+          .append(" (service p99 ").append(millis(Math.min(window.service.percentileNanos(99), window.maxNanos.get())))
+          .append(')');
+      if (!window.errors.isEmpty()) {
+        out.append(" errors ").append(new TreeMap<>(window.errors));
+      }
+      out.append('\n');
+    }
+    out.append("  ").append(gc.report(total));
+    System.out.println(out);
+    return requests == 0 ? 0 : 100.0 * failures / requests;
+  }
+
+  private static String millis(long nanos) {
+    if (nanos == Long.MAX_VALUE) {
+      return ">60s";
+    }
+    return String.format("%.1fms", nanos / 1e6);
+  }
+
+  /**
+   * Requests for an endpoint go to each of its paths (loadtest.paths.name,
+   * comma separated) in turn, at a total of loadtest.rate.name per second.
+   */
+  private void addEndpoint(String name, double defaultRate, String defaultPaths, String base) {
+    List<String> paths = new ArrayList<>();
+    for (String path : config.getString("loadtest.paths." + name, defaultPaths).split(",")) {
+      if (!path.trim().isEmpty()) {
+        paths.add(base + path.trim());
+      }
+    }
+    double rate = Double.parseDouble(config.getString("loadtest.rate." + name, String.valueOf(defaultRate)));
+    endpoints.add(new Endpoint(name, rate, paths));
+  }
+
+  private static int freePort() throws Exception {
+    try (ServerSocket socket = new ServerSocket(0)) {
+      return socket.getLocalPort();
+    }
+  }
+
+  /**
+   * Requests of one kind, with the results for the current reporting
+   * interval and for the whole measurement period.
+   */
+  private static class Endpoint {
+    final String name;
+    final double rate;
+    final List<String> paths;
+    final AtomicReference<Window> interval = new AtomicReference<>(new Window());
+    final Window total = new Window();
+
+    Endpoint(String name, double rate, List<String> paths) {
+      this.name = name;
+      this.rate = rate;
+      this.paths = paths;
+    }
+  }
+
+  private static class Window {
+    final LatencyHistogram latency = new LatencyHistogram();
+    final LatencyHistogram service = new LatencyHistogram();
+    final AtomicLong maxNanos = new AtomicLong();
+    final LongAdder ok = new LongAdder();
+    final LongAdder failed = new LongAdder();
+    final Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+
+    void success(long latencyNanos, long serviceNanos) {
+      latency.record(latencyNanos);
+      service.record(serviceNanos);
+      maxNanos.accumulateAndGet(latencyNanos, Math::max);
+      ok.increment();
+    }
+
+    void failure(String error) {
+      failed.increment();
+      errors.computeIfAbsent(error, k -> new LongAdder()).increment();
+    }
+  }
+
+  /**
+   * One client event loop with its own connections and login session,
+   * starting its share of the requests for every endpoint on schedule.
+   */
+  private class Driver {
+    private final Vertx vertx;
+    private final Context context;
+    private final int port;
+    private final int drivers;
+    private final Map<String, String> cookies = new LinkedHashMap<>();
+    private HttpClient client;
+
+    /**
+     * @param drivers how many drivers are sharing the load
+     */
+    Driver(Vertx vertx, int port, int connections, int drivers) {
+      this.vertx = vertx;
+      this.port = port;
+      this.drivers = drivers;
+      // Each call from outside Vert.x creates a new context, on the next event loop
+      context = vertx.getOrCreateContext();
+      context.runOnContext(v -> client = vertx.createHttpClient(new HttpClientOptions().setKeepAlive(true)
+          .setMaxPoolSize(connections).setDefaultHost("localhost").setDefaultPort(port)));
+    }
+
+    /**
+     * Authenticate the way a browser would with fake security, by following
+     * redirects (and keeping cookies) until the page is served.
+     */
+    CompletableFuture<Void> login(String path) {
+      CompletableFuture<Void> done = new CompletableFuture<>();
+      context.runOnContext(v -> follow("http://localhost:" + port + path, 10, done));
+      return done;
+    }
+
+    private void follow(String url, int hopsLeft, CompletableFuture<Void> done) {
+      client.getAbs(url, response -> response.bodyHandler(body -> {
+        for (String setCookie : response.cookies()) {
+          String pair = setCookie.split(";", 2)[0];
+          int equals = pair.indexOf('=');
+          if (equals > 0) {
+            cookies.put(pair.substring(0, equals).trim(), pair.substring(equals + 1).trim());
+          }
+        }
+        String location = response.getHeader("Location");
+        if (response.statusCode() == 200) {
+          done.complete(null);
+        } else if (location != null && hopsLeft > 0) {
+          follow(URI.create(url).resolve(location).toString(), hopsLeft - 1, done);
+        } else {
+          done.completeExceptionally(new IllegalStateException("Unable to log in with fake security, got status "
+              + response.statusCode() + " from " + url));
+        }
+      })).exceptionHandler(done::completeExceptionally).putHeader("Cookie", cookieHeader()).end();
+    }
+
+    private String cookieHeader() {
+      StringBuilder header = new StringBuilder();
+      for (Map.Entry<String, String> cookie : cookies.entrySet()) {
+        header.append(header.length() == 0 ? "" : "; ").append(cookie.getKey()).append('=').append(cookie.getValue());
+      }
+      return header.toString();
+    }
+
+    void start() {
+      context.runOnContext(v -> {
+        String cookie = cookieHeader();
+        long now = System.nanoTime();
+        for (Endpoint endpoint : endpoints) {
+          if (endpoint.rate <= 0 || endpoint.paths.isEmpty()) {
+            continue;
+          }
+          // The drivers start out of phase so their requests interleave
+          long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) * drivers / endpoint.rate);
+          long[] next = { now + (long) (Math.random() * intervalNanos) };
+          int[] pathIndex = { 0 };
+          vertx.setPeriodic(1, id -> {
+            if (!running) {
+              vertx.cancelTimer(id);
+              return;
+            }
+            long time = System.nanoTime();
+            while (next[0] <= time) {
+              String path = endpoint.paths.get(pathIndex[0]++ % endpoint.paths.size());
+              send(endpoint, path, cookie, next[0]);
+              next[0] += intervalNanos;
+            }
+          });
+        }
+      });
+    }
+
+    private void send(Endpoint endpoint, String path, String cookie, long intendedNanos) {
+      Window interval = endpoint.interval.get();
+      boolean measured = measuring;
+      if (outstanding.incrementAndGet() > maxOutstanding) {
+        // Behaving like an open system means not waiting, so count this as lost
+        outstanding.decrementAndGet();
+        failure(endpoint, interval, measured, "not sent (too many outstanding)");
+        return;
+      }
+
+      long sentNanos = System.nanoTime();
+      HttpClientRequest request = client.get(path, response -> response.bodyHandler(body -> {
+        outstanding.decrementAndGet();
+        int status = response.statusCode();
+        if (status == 200 || status == 304) {
+          long finished = System.nanoTime();
+          interval.success(finished - intendedNanos, finished - sentNanos);
+          if (measured) {
+            endpoint.total.success(finished - intendedNanos, finished - sentNanos);
+          }
+        } else {
+          failure(endpoint, interval, measured, "status " + status);
+        }
+      }));
+      request.exceptionHandler(e -> {
+        outstanding.decrementAndGet();
+        failure(endpoint, interval, measured, e.getClass().getSimpleName());
+      });
+      request.setTimeout(timeoutMillis).putHeader("Cookie", cookie).end();
+    }
+
+    private void failure(Endpoint endpoint, Window interval, boolean measured, String error) {
+      interval.failure(error);
+      if (measured) {
+        endpoint.total.failure(error);
+      }
+    }
+  }
+
+  /**
+   * Track individual collector pauses through JMX notifications, and heap
+   * use after collection (which is what grows if something leaks).
+   */
+  private static class GcMonitor {
+    private final LongAdder pauses = new LongAdder();
+    private final LongAdder pauseMillis = new LongAdder();
+    private final AtomicLong maxPauseMillis = new AtomicLong();
+    private final LongAdder totalPauses = new LongAdder();
+    private final LongAdder totalPauseMillis = new LongAdder();
+    private final AtomicLong totalMaxPauseMillis = new AtomicLong();
+    private long firstAfterGcBytes = -1;
+
+    GcMonitor() {
+      for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+        if (collector instanceof NotificationEmitter) {
+          ((NotificationEmitter) collector).addNotificationListener((notification, handback) -> {
+            if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+              return;
+            }
+            GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from(
+                (CompositeData) notification.getUserData());
+            // Concurrent collectors also report their cycles, which do not stop the application
+            String name = info.getGcName() + " " + info.getGcAction();
+            if (name.contains("Concurrent") || name.contains("concurrent") || name.contains("Cycles")) {
+              return;
+            }
+            long duration = info.getGcInfo().getDuration();
+            pauses.increment();
+            pauseMillis.add(duration);
+            maxPauseMillis.accumulateAndGet(duration, Math::max);
+            totalPauses.increment();
+            totalPauseMillis.add(duration);
+            totalMaxPauseMillis.accumulateAndGet(duration, Math::max);
+          }, null, null);
+        }
+      }
+    }
+
+    void resetTotals() {
+      totalPauses.reset();
+      totalPauseMillis.reset();
+      totalMaxPauseMillis.set(0);
+      firstAfterGcBytes = afterGcBytes();
+    }
+
+    String report(boolean total) {
+      long count = total ? totalPauses.sum() : pauses.sumThenReset();
+      long millis = total ? totalPauseMillis.sum() : pauseMillis.sumThenReset();
+      long max = total ? totalMaxPauseMillis.get() : maxPauseMillis.getAndSet(0);
+      MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+      long afterGc = afterGcBytes();
+      String growth = total && firstAfterGcBytes >= 0 && afterGc >= 0
+          ? String.format(" (%+dMB since warm up)", (afterGc - firstAfterGcBytes) >> 20) : "";
+      return String.format("gc %d pauses, %dms total, %dms max; heap %dMB used, %dMB committed, %s max;"
+              + " after last gc %s%s", count, millis, max, heap.getUsed() >> 20, heap.getCommitted() >> 20,
+          heap.getMax() < 0 ? "no" : (heap.getMax() >> 20) + "MB", afterGc < 0 ? "unknown" : (afterGc >> 20) + "MB",
+          growth);
+    }
+
+    /**
+     * @return heap in use right after the last collection of each pool, or -1 if not known
+     */
+    private long afterGcBytes() {
+      long bytes = -1;
+      for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+        MemoryUsage usage = pool.getType() == MemoryType.HEAP ? pool.getCollectionUsage() : null;
+        if (usage != null) {
+          bytes = Math.max(bytes, 0) + usage.getUsed();
+        }
+      }
+      return bytes;
+    }
+  }
+}
@@ -0,0 +1,382 @@
+/*
+ * Copyright 2026 The Board of Trustees of The Leland Stanford Junior University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.susom.app.server.container;
+
+import com.github.susom.app.server.services.MessageCache;
+import com.github.susom.app.server.services.MessageDao;
+import com.github.susom.app.server.services.MessageWriter;
+import com.github.susom.database.Config;
+import com.github.susom.database.DatabaseProvider;
+import com.github.susom.database.DatabaseProvider.Pool;
+import com.github.susom.database.DatabaseProviderVertx;
+import com.github.susom.database.DatabaseProviderVertx.Builder;
+import com.github.susom.vertx.base.DatabaseHealthCheck;
+import com.github.susom.vertx.base.PortInfo;
+import io.vertx.core.Vertx;
+import io.vertx.core.shareddata.Shareable;
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The thread-safe services shared by every instance of {@link AppVerticle}.
+ * These are created once by {@link Main} and handed to the verticles through
+ * Vert.x local shared data, so all instances use the same database pool,
+ * caches and metrics. The verticles may be deployed first (see
+ * {@link #expect(Vertx, Config)}) so the port is open while the services
+ * are still being created.
+ */
+public class AppServices implements Shareable {
+  private static final Logger log = LoggerFactory.getLogger(AppServices.class);
+  private static final String MAP_NAME = AppServices.class.getName();
+  private final Config config;
+  private final Builder db;
+  private final DatabaseProvider.Builder blockingDb;
+  private final DbExecutor dbExecutor;
+  private final ReplicaRouter replicaRouter;
+  private final SecureRandom random;
+  private final Metrics metrics;
+  private final MessageCache messageCache;
+  private final MessageWriter messageWriter;
+  private final MessageEvents messageEvents;
+  private final ClusterInvalidation clusterInvalidation;
+  private final SearchIndexer searchIndexer;
+  private final DatabaseHealthCheck healthCheck;
+  private final StaticAssets staticAssets;
+  private final PortInfo listen;
+  private final String context;
+  private volatile boolean ready;
+  private volatile Registration registration;
+
+  public AppServices(Vertx vertx, Config config, Pool pool, SecureRandom random) {
+    this(vertx, config, pool, random, createStaticAssets(config));
+  }
+
+  /**
+   * @param staticAssets the result of {@link #createStaticAssets(Config)}, which
+   *                     may be prepared concurrently with the other arguments
+   */
+  public AppServices(Vertx vertx, Config config, Pool pool, SecureRandom random, StaticAssets staticAssets) {
+    this.config = config;
+    this.staticAssets = staticAssets;
+    this.random = random;
+    listen = PortInfo.parseUrl(config.getString("listen.url", "http://0.0.0.0:8080"));
+    context = '/' + config.getString("app.context", "home");
+    metrics = new Metrics();
+
+    // Application database work runs on its own worker threads, one per
+    // pooled connection (or on virtual threads if requested), with a limit
+    // on how much may queue up behind them
+    db = DatabaseProviderVertx.fromPool(vertx, pool).withSqlParameterLogging();
+    blockingDb = DatabaseProvider.fromPool(pool).withSqlParameterLogging();
+    dbExecutor = new DbExecutor(vertx, blockingDb, "app-db",
+        config.getInteger("database.pool.size", 10), config.getInteger("database.max.queued", 100),
+        config.getBooleanOrFalse("database.virtual.threads"));
+    metrics.addSample("db_pending", "gauge", "Database transactions running or waiting for a thread",
+        dbExecutor::pendingCount);
+    metrics.addSample("db_rejected_total", "counter", "Database transactions rejected because too many were queued",
+        dbExecutor::rejectedCount);
+    metrics.addSample("db_timed_out_total", "counter", "Database transactions that did not complete in time",
+        dbExecutor::timedOutCount);
+    healthCheck = new DatabaseHealthCheck(vertx, db, config);
+
+    // Read-only transactions may go to a replica database if one is configured
+    replicaRouter = new ReplicaRouter(vertx, config, dbExecutor, blockingDb);
+    metrics.addSample("db_replica_usable", "gauge", "Whether reads are being sent to the replica (1) or not (0)",
+        () -> replicaRouter.isReplicaUsable() ? 1 : 0);
+    metrics.addSample("db_replica_lag_millis", "gauge", "How far behind the replica was at the last check",
+        replicaRouter::lagMillis);
+    metrics.addSample("db_replica_reads_total", "counter", "Read-only transactions sent to the replica",
+        replicaRouter::replicaReadCount);
+    metrics.addSample("db_primary_reads_total", "counter", "Read-only transactions sent to the primary",
+        replicaRouter::primaryReadCount);
+    metrics.addSample("db_replica_retries_total", "counter", "Replica reads repeated on the primary",
+        replicaRouter::retryCount);
+
+    messageCache = new MessageCache(config.getInteger("message.cache.max.entries", 10000),
+        config.getInteger("message.cache.ttl.seconds", 300),
+        config.getInteger("message.cache.negative.ttl.seconds", 10), TimeUnit.SECONDS);
+    metrics.addSample("message_cache_hits_total", "counter", "Message lookups answered from the cache",
+        messageCache::hitCount);
+    metrics.addSample("message_cache_misses_total", "counter", "Message lookups not found in the cache",
+        messageCache::missCount);
+    metrics.addSample("message_cache_loads_total", "counter", "Message lookups that went to the database",
+        messageCache::loadCount);
+    metrics.addSample("message_cache_evictions_total", "counter", "Messages removed from the cache",
+        messageCache::evictionCount);
+    metrics.addSample("message_cache_size", "gauge", "Messages currently in the cache", messageCache::size);
+
+    // Expired entries are dropped as they are accessed, but sweep occasionally
+    // so memory is released for ids that are no longer being requested
+    vertx.setPeriodic(TimeUnit.SECONDS.toMillis(60), id -> messageCache.evictExpired());
+
+    // New messages are queued and inserted in groups by a single thread, so
+    // many requests share one commit (this uses its own connection from the pool)
+    messageWriter = new MessageWriter(blockingDb, messageCache,
+        config.getInteger("message.writer.batch.size", 500),
+        config.getInteger("message.writer.max.delay.millis", 5),
+        config.getInteger("message.writer.queue.size", 10000));
+    metrics.addSample("message_writer_queued", "gauge", "Messages waiting to be written",
+        messageWriter::queuedCount);
+    metrics.addSample("message_writer_batches_total", "counter", "Transactions used to write messages",
+        messageWriter::batchCount);
+    metrics.addSample("message_writer_written_total", "counter", "Messages written and committed",
+        messageWriter::writtenCount);
+    metrics.addSample("message_writer_rejected_total", "counter", "Messages rejected because the queue was full",
+        messageWriter::rejectedCount);
+
+    // Tell connected clients about new messages rather than having them poll
+    messageEvents = new MessageEvents(vertx, config, messageWriter);
+    metrics.addSample("events_connections", "gauge", "Clients listening for message events",
+        messageEvents::connectionCount);
+    metrics.addSample("events_published_total", "counter", "Message events published",
+        messageEvents::publishedCount);
+    metrics.addSample("events_coalesced_total", "counter", "Events collapsed into a summary for a slow client",
+        messageEvents::coalescedCount);
+    metrics.addSample("events_dropped_total", "counter", "Clients disconnected for not reading events",
+        messageEvents::droppedCount);
+
+    // When several nodes run behind a load balancer, let them tell each other about new messages
+    if (config.getString("cluster.invalidation.group") != null) {
+      clusterInvalidation = new ClusterInvalidation(vertx, config, messageCache, messageEvents, messageWriter);
+      metrics.addSample("cluster_invalidations_sent_total", "counter", "Cache invalidation packets sent to other nodes",
+          clusterInvalidation::sentCount);
+      metrics.addSample("cluster_invalidations_received_total", "counter",
+          "Cache invalidation packets received from other nodes", clusterInvalidation::receivedCount);
+      metrics.addSample("cluster_invalidation_gaps_total", "counter",
+          "Times the cache was cleared because invalidations from another node were lost",
+          clusterInvalidation::gapCount);
+      metrics.addSample("cluster_invalidations_rejected_total", "counter",
+          "Cache invalidation packets dropped because they were not signed with the shared secret",
+          clusterInvalidation::rejectedCount);
+    } else {
+      clusterInvalidation = null;
+    }
+
+    // Full text search over messages, built in the background from the table
+    // and then kept current from the message events
+    searchIndexer = new SearchIndexer(vertx, blockingDb, replicaRouter,
+        config.getInteger("search.index.page.size", 10000));
+    metrics.addSample("search_index_messages", "gauge", "Messages in the search index",
+        () -> searchIndexer.index().size());
+  }
+
+  /**
+   * Serve static content from memory with pre-compressed variants, except
+   * by default in dev mode where we want edits to show up immediately.
+   */
+  public static StaticAssets createStaticAssets(Config config) {
+    boolean staticInMemory = config.getBooleanOrFalse("insecure.dev.mode")
+        ? config.getBooleanOrFalse("static.in.memory") : config.getBooleanOrTrue("static.in.memory");
+    return new StaticAssets("index.nocache.html", staticInMemory);
+  }
+
+  /**
+   * Open the database connections we expect to need and run the common
+   * statements on each of them, so the first requests do not pay for
+   * connecting and preparing. Problems are logged rather than reported,
+   * since requests will simply do the same work later.
+   *
+   * @param connections how many connections to open concurrently
+   * @param executor runs the warm up, needs at least this many threads
+   */
+  public CompletableFuture<Void> warmUp(int connections, Executor executor) {
+    CyclicBarrier allConnected = new CyclicBarrier(connections);
+    CompletableFuture<?>[] tasks = new CompletableFuture<?>[connections];
+    for (int i = 0; i < connections; i++) {
+      tasks[i] = CompletableFuture.runAsync(() -> {
+        try {
+          blockingDb.transact(dbs -> {
+            MessageDao messageDao = new MessageDao(dbs);
+            messageDao.findMessageById(0L);
+            messageDao.findMessagesByIds(Collections.singletonList(0L));
+            messageDao.forEachMessageAfter(Long.MAX_VALUE, 1, message -> { });
+            // Hold on to this connection until the others are open too, so
+            // we really do end up with the requested number of connections
+            allConnected.await(10, TimeUnit.SECONDS);
+          });
+        } catch (Exception e) {
+          log.debug("Unable to warm up a database connection", e);
+        }
+      }, executor);
+    }
+    return CompletableFuture.allOf(tasks);
+  }
+
+  /**
+   * @return true once startup has completed and requests should be sent to us
+   */
+  public boolean isReady() {
+    return ready;
+  }
+
+  public void markReady() {
+    ready = true;
+  }
+
+  /**
+   * Allow verticles to be deployed on this Vert.x instance before the
+   * services have been created. They will listen on the port right away,
+   * answering every request with a 503 until {@link #register(Vertx)}.
+   */
+  public static void expect(Vertx vertx, Config config) {
+    registration(vertx, config);
+  }
+
+  /**
+   * Make these services available to verticles deployed on this Vert.x instance.
+   */
+  public void register(Vertx vertx) {
+    registration = registration(vertx, config);
+    registration.services.complete(this);
+  }
+
+  /**
+   * @return the services, which will not be complete yet if the verticles
+   *         were deployed before they were registered
+   */
+  static CompletableFuture<AppServices> whenRegistered(Vertx vertx) {
+    return registration(vertx).services;
+  }
+
+  /**
+   * @return the configuration, which is available before the services are
+   */
+  static Config config(Vertx vertx) {
+    return registration(vertx).config;
+  }
+
+  private static Registration registration(Vertx vertx) {
+    Registration registration = vertx.sharedData().<String, Registration>getLocalMap(MAP_NAME).get("services");
+    if (registration == null) {
+      throw new IllegalStateException("AppServices must be registered or expected before deploying verticles");
+    }
+    return registration;
+  }
+
+  private static Registration registration(Vertx vertx, Config config) {
+    Registration created = new Registration(config);
+    Registration existing = vertx.sharedData().<String, Registration>getLocalMap(MAP_NAME)
+        .putIfAbsent("services", created);
+    return existing == null ? created : existing;
+  }
+
+  public Config config() {
+    return config;
+  }
+
+  public Builder db() {
+    return db;
+  }
+
+  public DbExecutor dbExecutor() {
+    return dbExecutor;
+  }
+
+  /**
+   * @return where read-only transactions should be run
+   */
+  public ReplicaRouter replicaRouter() {
+    return replicaRouter;
+  }
+
+  public SecureRandom random() {
+    return random;
+  }
+
+  public Metrics metrics() {
+    return metrics;
+  }
+
+  public MessageCache messageCache() {
+    return messageCache;
+  }
+
+  public MessageWriter messageWriter() {
+    return messageWriter;
+  }
+
+  public MessageEvents messageEvents() {
+    return messageEvents;
+  }
+
+  public SearchIndexer searchIndexer() {
+    return searchIndexer;
+  }
+
+  public DatabaseHealthCheck healthCheck() {
+    return healthCheck;
+  }
+
+  public StaticAssets staticAssets() {
+    return staticAssets;
+  }
+
+  public PortInfo listen() {
+    return listen;
+  }
+
+  /**
+   * Called by each verticle once its server is listening.
+   */
+  static void listening(Vertx vertx, int port) {
+    registration(vertx).actualPort = port;
+  }
+
+  /**
+   * @return the port the server is listening on, which is only known after
+   *         it starts if the configured port was zero (zero until then)
+   */
+  public int actualPort() {
+    Registration registered = registration;
+    return registered == null ? 0 : registered.actualPort;
+  }
+
+  public String context() {
+    return context;
+  }
+
+  public void close() {
+    // Finish writing anything already accepted before the pool goes away
+    searchIndexer.close();
+    messageWriter.close();
+    if (clusterInvalidation != null) {
+      clusterInvalidation.close();
+    }
+    replicaRouter.close();
+    dbExecutor.close();
+    db.close();
+  }
+
+  /**
+   * What verticles on one Vert.x instance share, which exists before the
+   * services themselves if they were expected.
+   */
+  private static class Registration implements Shareable {
+    final Config config;
+    final CompletableFuture<AppServices> services = new CompletableFuture<>();
+    volatile int actualPort;
+
+    Registration(Config config) {
+      this.config = config;
+    }
+  }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2026 The Board of Trustees of The Leland Stanford Junior University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.susom.app.server.container;
+
+import com.github.susom.database.Config;
+import com.github.susom.vertx.base.PortInfo;
+import com.github.susom.vertx.base.Security;
+import com.github.susom.vertx.base.SecurityImpl;
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.http.HttpServerOptions;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.net.JksOptions;
+import io.vertx.ext.web.Router;
+import io.vertx.ext.web.RoutingContext;
+import java.util.concurrent.CompletableFuture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static com.github.susom.vertx.base.VertxBase.*;
+
+/**
+ * Builds the routing and HTTP server for the application. Main deploys
+ * several instances of this so requests are spread across event loops
+ * (and therefore cores). The instances all listen on the same port, and
+ * Vert.x distributes incoming connections between them.
+ *
+ * <p>If the instances are deployed before {@link AppServices} has been
+ * registered, they start listening anyway and answer every request with a
+ * 503, then add the routes once the services are available.</p>
+ */
+public class AppVerticle extends AbstractVerticle {
+  private static final Logger log = LoggerFactory.getLogger(AppVerticle.class);
+  protected Security security;
+  // Only used on this verticle's event loop
+  private Router router;
+
+  @Override
+  public void start(Future<Void> startFuture) {
+    CompletableFuture<AppServices> registered = AppServices.whenRegistered(vertx);
+    Config config = AppServices.config(vertx);
+    PortInfo listen = PortInfo.parseUrl(config.getString("listen.url", "http://0.0.0.0:8080"));
+    if (registered.isDone()) {
+      router = router(registered.join());
+    }
+
+    // Start the server
+    HttpServerOptions options = new HttpServerOptions();
+    if (listen.proto().equals("https")) {
+//      String sslKeyType = config.getString("ssl.keystore.type", "pkcs12");
+      String sslKeyPath = config.getString("ssl.keystore.path", "local.ssl.pkcs12");
+      String sslKeyPassword = config.getString("ssl.keystore.password", "secret");
+//      if (devMode && !Files.exists(Paths.get(sslKeyPath))) {
+//        log.info("Dev mode: creating a self-signed keystore for SSL/TLS");
+//        sun.security.tools.keytool.Main.main(new String[] { "-keystore", sslKeyPath,
+//            "-storetype", sslKeyType, "-storepass", sslKeyPassword, "-genkey", "-keyalg", "RSA", "-validity",
+//            "3650", "-alias", "self", "-dname", "CN=localhost, OU=ME, O=Mine, L=Here, ST=CA, C=US" });
+//      }
+      options.setSsl(true).setKeyStoreOptions(new JksOptions().setPath(sslKeyPath).setPassword(sslKeyPassword));
+    }
+    options.setCompressionSupported(config.getBooleanOrTrue("http.compression"));
+    vertx.createHttpServer(options).requestHandler(this::handle).listen(listen.port(), listen.host(), result -> {
+      if (result.succeeded()) {
+        log.debug("Verticle {} listening on port {}", deploymentID(), result.result().actualPort());
+        AppServices.listening(vertx, result.result().actualPort());
+        if (router == null) {
+          registered.thenAccept(services -> context.runOnContext(v -> {
+            try {
+              router = router(services);
+            } catch (Exception e) {
+              log.error("Unable to configure routes for verticle " + deploymentID(), e);
+            }
+          }));
+        }
+        startFuture.complete();
+      } else {
+        startFuture.fail(result.cause());
+      }
+    });
+  }
+
+  private void handle(HttpServerRequest request) {
+    if (router == null) {
+      starting(request.response());
+    } else {
+      router.accept(request);
+    }
+  }
+
+  private static void starting(HttpServerResponse response) {
+    response.setStatusCode(503).putHeader("Retry-After", "1").putHeader("content-type", "application/json")
+        .end(new JsonObject().put("status", "STARTING").encode());
+  }
+
+  private Router router(AppServices services) {
+    Config config = services.config();
+    Router root = rootRouter(vertx, services.context());
+
+    // Record request metrics before anything else (including authentication)
+    // so the numbers reflect what clients actually experience
+    Metrics metrics = services.metrics();
+    root.route().handler(metrics);
+    if (config.getBooleanOrFalse("metrics.enabled")) {
+      metrics.addMetricsHandler(root, config.getString("metrics.path", "/metrics"));
+    }
+
+    Router appRouter = authenticatedRouter(services, root);
+    new SecureApp(services, security).configureRouter(vertx, appRouter);
+
+    // Add status pages per DCS standards (JSON returned from /status and /status/app),
+    // which report unavailable until startup has finished so load balancers wait for us
+    Handler<RoutingContext> readiness = rc -> {
+      if (services.isReady()) {
+        rc.next();
+      } else {
+        starting(rc.response());
+      }
+    };
+    root.get("/status").handler(readiness);
+    root.get("/status/app").handler(readiness);
+    services.healthCheck().addStatusHandlers(root);
+    return root;
+  }
+
+  /**
+   * Set up authentication on the root router and return the router the
+   * application APIs should be added to.
+   *
+   * <p>Each instance has its own {@link SecurityImpl}, because it installs
+   * its login and callback handlers on this instance's router. A browser's
+   * connections may be served by different instances, so the security
+   * implementation must not keep login sessions in memory (the session
+   * travels with the request). AppVerticleTest checks that a login made
+   * through one instance is honored by the others.</p>
+   */
+  protected Router authenticatedRouter(AppServices services, Router root) {
+    security = new SecurityImpl(vertx, root, services.random(), services.config()::getString);
+    return security.authenticatedRouter(services.context());
+  }
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright 2026 The Board of Trustees of The Leland Stanford Junior University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.susom.app.server.container;
+
+import com.github.susom.app.server.services.MessageCache;
+import com.github.susom.app.server.services.MessageWriter;
+import com.github.susom.database.Config;
+import io.vertx.core.Context;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.datagram.DatagramPacket;
+import io.vertx.core.datagram.DatagramSocket;
+import io.vertx.core.datagram.DatagramSocketOptions;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keep the message caches of several application nodes consistent by
+ * broadcasting the ids of new messages over UDP multicast. Each node
+ * invalidates those ids in its own {@link MessageCache} and announces them
+ * to its own clients through {@link MessageEvents}.
+ *
+ * <p>UDP may lose or reorder packets, so every node numbers the
+ * invalidations it sends, and regularly sends a heartbeat with the last
+ * number used. A receiver that sees a gap in the numbers from some node
+ * (or hears from a node for the first time part way through its sequence,
+ * or again after a long silence) cannot know what it missed, so it clears
+ * its entire cache. Late or duplicate packets are applied anyway, since
+ * invalidating is idempotent. Each node picks a new random id when it
+ * starts, so a restarted node is treated as a new sender.</p>
+ *
+ * <p>All nodes share the same database, so the only risk this protects
+ * against is serving stale cached entries, and the worst case after a lost
+ * packet is a cache miss.</p>
+ *
+ * <p>Every packet starts with an HMAC-SHA256 of its content, keyed with a
+ * secret all the nodes share (cluster.invalidation.secret), and packets
+ * that do not carry a valid one are dropped. Otherwise anybody who can
+ * reach the port could make the nodes clear their caches or announce
+ * messages to clients. The content is not encrypted (it only carries
+ * message ids), and a packet captured from the network could be replayed,
+ * which at worst repeats an invalidation or clears the cache.</p>
+ *
+ * <p>Several JVMs on one machine can share a group for testing, using the
+ * loopback interface (e.g. cluster.invalidation.interface=lo).</p>
+ */
+public class ClusterInvalidation {
+  private static final Logger log = LoggerFactory.getLogger(ClusterInvalidation.class);
+  private static final int MAX_IDS_PER_PACKET = 200;
+  private static final String MAC_ALGORITHM = "HmacSHA256";
+  private static final int MAC_BYTES = 32;
+  private final MessageCache cache;
+  private final MessageEvents events;
+  private final String nodeId = UUID.randomUUID().toString();
+  private final String group;
+  private final int port;
+  private final long peerTimeoutNanos;
+  private final Context context;
+  private final Mac mac;
+  private final Map<String, Peer> peers = new HashMap<>();
+  private final LongAdder sent = new LongAdder();
+  private final LongAdder received = new LongAdder();
+  private final LongAdder gaps = new LongAdder();
+  private final LongAdder rejected = new LongAdder();
+  private DatagramSocket socket;
+  private long sequence;
+  private long heartbeatTimer;
+
+  public ClusterInvalidation(Vertx vertx, Config config, MessageCache cache, MessageEvents events,
+                             MessageWriter writer) {
+    this.cache = cache;
+    this.events = events;
+    group = config.getString("cluster.invalidation.group");
+    port = config.getInteger("cluster.invalidation.port", 45688);
+    String networkInterface = config.getString("cluster.invalidation.interface");
+    long heartbeatMillis = config.getLong("cluster.invalidation.heartbeat.millis", 2000);
+    peerTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(heartbeatMillis * 10);
+    String secret = config.getString("cluster.invalidation.secret");
+    if (secret == null || secret.isEmpty()) {
+      throw new IllegalStateException("Set cluster.invalidation.secret to the same value on every node");
+    }
+    try {
+      // Only used on the context below, so it does not need to be thread safe
+      mac = Mac.getInstance(MAC_ALGORITHM);
+      mac.init(new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), MAC_ALGORITHM));
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException("Unable to sign cache invalidations", e);
+    }
+
+    // Everything (including sending) happens on one event loop, so sequence
+    // numbers are assigned in the order packets are written
+    context = vertx.getOrCreateContext();
+    context.runOnContext(v -> {
+      // Send on the same interface we listen on, otherwise it is up to the routing table
+      socket = vertx.createDatagramSocket(new DatagramSocketOptions().setReuseAddress(true).setIpV6(false)
+          .setMulticastTimeToLive(config.getInteger("cluster.invalidation.ttl", 1)).setLoopbackModeDisabled(false)
+          .setMulticastNetworkInterface(networkInterface));
+      socket.handler(this::receive);
+      socket.listen(port, "0.0.0.0", listen -> {
+        if (listen.failed()) {
+          log.error("Unable to listen for cache invalidations on port " + port, listen.cause());
+          return;
+        }
+        socket.listenMulticastGroup(group, networkInterface, null, join -> {
+          if (join.failed()) {
+            log.error("Unable to join cache invalidation group " + group, join.cause());
+          } else {
+            log.info("Sharing cache invalidations with group {}:{} as node {}", group, port, nodeId);
+          }
+        });
+      });
+      heartbeatTimer = vertx.setPeriodic(heartbeatMillis, id -> heartbeat());
+    });
+
+    writer.addListener(ids -> context.runOnContext(v -> broadcast(ids)));
+  }
+
+  public long sentCount() {
+    return sent.sum();
+  }
+
+  public long receivedCount() {
+    return received.sum();
+  }
+
+  public long gapCount() {
+    return gaps.sum();
+  }
+
+  /**
+   * @return packets dropped because they were not signed with our secret
+   */
+  public long rejectedCount() {
+    return rejected.sum();
+  }
+
+  public void close() {
+    context.runOnContext(v -> {
+      context.owner().cancelTimer(heartbeatTimer);
+      if (socket != null) {
+        socket.close();
+      }
+    });
+  }
+
+  private void broadcast(List<Long> messageIds) {
+    for (int start = 0; start < messageIds.size(); start += MAX_IDS_PER_PACKET) {
+      List<Long> chunk = messageIds.subList(start, Math.min(messageIds.size(), start + MAX_IDS_PER_PACKET));
+      send(new JsonObject().put("node", nodeId).put("type", "added").put("seq", ++sequence)
+          .put("ids", new JsonArray(new ArrayList<>(chunk))));
+    }
+  }
+
+  private void heartbeat() {
+    send(new JsonObject().put("node", nodeId).put("type", "heartbeat").put("seq", sequence));
+
+    // Forget nodes that have gone quiet, so if they come back we assume we missed something
+    long now = System.nanoTime();
+    Iterator<Peer> iterator = peers.values().iterator();
+    while (iterator.hasNext()) {
+      if (now - iterator.next().lastHeard > peerTimeoutNanos) {
+        iterator.remove();
+      }
+    }
+  }
+
+  private void send(JsonObject packet) {
+    if (socket == null) {
+      return;
+    }
+    byte[] content = packet.toBuffer().getBytes();
+    Buffer signed = Buffer.buffer(MAC_BYTES + content.length).appendBytes(mac.doFinal(content)).appendBytes(content);
+    socket.send(signed, port, group, result -> {
+      if (result.failed()) {
+        log.debug("Unable to send cache invalidation", result.cause());
+      }
+    });
+    sent.increment();
+  }
+
+  private void receive(DatagramPacket packet) {
+    byte[] data = packet.data().getBytes();
+    if (data.length <= MAC_BYTES) {
+      rejected(packet);
+      return;
+    }
+    mac.update(data, MAC_BYTES, data.length - MAC_BYTES);
+    if (!MessageDigest.isEqual(mac.doFinal(), Arrays.copyOf(data, MAC_BYTES))) {
+      rejected(packet);
+      return;
+    }
+
+    JsonObject json;
+    try {
+      json = packet.data().getBuffer(MAC_BYTES, data.length).toJsonObject();
+    } catch (Exception e) {
+      log.debug("Ignoring malformed cache invalidation from " + packet.sender());
+      return;
+    }
+    String node = json.getString("node");
+    if (node == null || nodeId.equals(node)) {
+      // Multicast loopback delivers our own packets too
+      return;
+    }
+    received.increment();
+
+    long seq = json.getLong("seq", 0L);
+    boolean added = "added".equals(json.getString("type"));
+    Peer peer = peers.get(node);
+    if (peer == null) {
+      peer = new Peer();
+      peers.put(node, peer);
+      // Anything before this packet happened without us hearing about it
+      if (seq > (added ? 1 : 0)) {
+        missed(node);
+      }
+      peer.lastSeq = seq;
+    } else if (seq > peer.lastSeq + (added ? 1 : 0)) {
+      missed(node);
+      peer.lastSeq = seq;
+    } else if (seq > peer.lastSeq) {
+      peer.lastSeq = seq;
+    }
+    peer.lastHeard = System.nanoTime();
+
+    if (added) {
+      JsonArray ids = json.getJsonArray("ids", new JsonArray());
+      List<Long> messageIds = new ArrayList<>(ids.size());
+      for (int i = 0; i < ids.size(); i++) {
+        long messageId = ids.getLong(i);
+        cache.invalidate(messageId);
+        messageIds.add(messageId);
+      }
+      if (!messageIds.isEmpty()) {
+        events.publish(messageIds);
+      }
+    }
+  }
+
+  private void rejected(DatagramPacket packet) {
+    log.debug("Ignoring cache invalidation with a missing or wrong signature from {}", packet.sender());
+    rejected.increment();
+  }
+
+  private void missed(String node) {
+    log.debug("Missed cache invalidations from node {}, clearing the cache", node);
+    gaps.increment();
+    cache.invalidateAll();
+  }
+
+  private static class Peer {
+    long lastSeq;
+    long lastHeard;
+  }
+}
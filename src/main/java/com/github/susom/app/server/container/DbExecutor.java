@@ -0,0 +1,226 @@
+/*
+ * Copyright 2026 The Board of Trustees of The Leland Stanford Junior University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.susom.app.server.container;
+
+import com.github.susom.app.server.services.MessageWriter;
+import com.github.susom.database.DatabaseProvider;
+import com.github.susom.database.DbCodeTyped;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.WorkerExecutor;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.RoutingContext;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Run database transactions on a dedicated, named pool of worker threads
+ * sized to match the JDBC connection pool. Rather than letting work queue
+ * without bound when the database slows down, this limits how much work may
+ * be waiting and rejects anything beyond that immediately, and gives up on
+ * work that does not complete within a deadline.
+ *
+ * <p>Optionally (Java 21 or later) each transaction can run on its own
+ * virtual thread instead, so the connection pool is the only thing limiting
+ * how many run concurrently.</p>
+ */
+public class DbExecutor {
+  private final Vertx vertx;
+  private final DatabaseProvider.Builder db;
+  private final WorkerExecutor executor;
+  private final ExecutorService virtualThreads;
+  private final int maxPending;
+  private final AtomicInteger pending = new AtomicInteger();
+  private final LongAdder rejected = new LongAdder();
+  private final LongAdder timedOut = new LongAdder();
+
+  /**
+   * @param poolSize number of worker threads, which should match the number
+   *                 of database connections available to them
+   * @param maxQueued how many transactions may wait for a worker thread
+   *                  before new ones are rejected
+   * @param useVirtualThreads true to run each transaction on a new virtual
+   *                          thread rather than using the worker pool
+   */
+  public DbExecutor(Vertx vertx, DatabaseProvider.Builder db, String name, int poolSize, int maxQueued,
+                    boolean useVirtualThreads) {
+    this.vertx = vertx;
+    this.db = db;
+    if (useVirtualThreads) {
+      executor = null;
+      virtualThreads = newVirtualThreadPerTaskExecutor();
+    } else {
+      executor = vertx.createSharedWorkerExecutor(name, poolSize);
+      virtualThreads = null;
+    }
+    this.maxPending = poolSize + maxQueued;
+  }
+
+  /**
+   * Run a transaction on a worker thread and provide the result to the handler
+   * on the calling context. The handler receives a {@link DbOverloadedException}
+   * if too much work is already pending, or a {@link TimeoutException} if the
+   * deadline passes before the transaction completes (in which case the
+   * transaction may still commit).
+   *
+   * @param rc the request this transaction is for, used to record metrics
+   */
+  public <T> void transact(RoutingContext rc, long timeoutMillis, DbCodeTyped<T> code,
+                           Handler<AsyncResult<T>> handler) {
+    if (pending.incrementAndGet() > maxPending) {
+      pending.decrementAndGet();
+      rejected.increment();
+      handler.handle(Future.failedFuture(new DbOverloadedException()));
+      return;
+    }
+
+    AtomicBoolean done = new AtomicBoolean();
+    long timerId = vertx.setTimer(timeoutMillis, id -> {
+      if (done.compareAndSet(false, true)) {
+        timedOut.increment();
+        handler.handle(Future.failedFuture(new TimeoutException("Database did not respond within "
+            + timeoutMillis + "ms")));
+      }
+    });
+
+    DbCodeTyped<T> timedCode = rc == null ? code : Metrics.timedDb(rc, code);
+    Callable<T> task = () -> {
+      if (done.get()) {
+        // Nobody is waiting for this any more, so don't bother the database
+        throw new TimeoutException("Timed out waiting for a database thread");
+      }
+      Object[] result = new Object[1];
+      db.transact(dbs -> result[0] = timedCode.run(dbs));
+      @SuppressWarnings("unchecked")
+      T typed = (T) result[0];
+      return typed;
+    };
+    runBlocking(task, result -> {
+      pending.decrementAndGet();
+      vertx.cancelTimer(timerId);
+      if (done.compareAndSet(false, true)) {
+        handler.handle(result);
+      }
+    });
+  }
+
+  private <T> void runBlocking(Callable<T> task, Handler<AsyncResult<T>> resultHandler) {
+    if (virtualThreads == null) {
+      executor.<T>executeBlocking(future -> {
+        try {
+          future.complete(task.call());
+        } catch (Exception e) {
+          future.fail(e);
+        }
+      }, false, resultHandler);
+      return;
+    }
+
+    // Deliver the result back on the calling context, just like executeBlocking()
+    Context context = vertx.getOrCreateContext();
+    try {
+      virtualThreads.execute(() -> {
+        AsyncResult<T> result;
+        try {
+          result = Future.succeededFuture(task.call());
+        } catch (Exception e) {
+          result = Future.failedFuture(e);
+        }
+        AsyncResult<T> finalResult = result;
+        context.runOnContext(v -> resultHandler.handle(finalResult));
+      });
+    } catch (RejectedExecutionException e) {
+      resultHandler.handle(Future.failedFuture(e));
+    }
+  }
+
+  /**
+   * If a transaction failed because the database was overloaded or too slow,
+   * tell the client so (503 or 504 status), with a hint to try again soon.
+   *
+   * @return true if a response was sent, false if the failure was something else
+   */
+  public static boolean sendUnavailable(RoutingContext rc, Throwable failure) {
+    int status;
+    if (failure instanceof DbOverloadedException || failure instanceof MessageWriter.QueueFullException
+        || failure instanceof MessageWriter.ClosedException) {
+      status = 503;
+    } else if (failure instanceof TimeoutException) {
+      status = 504;
+    } else {
+      return false;
+    }
+    rc.response().setStatusCode(status).putHeader("Retry-After", "1").putHeader("content-type", "application/json")
+        .end(new JsonObject().put("error", failure.getMessage()).encode());
+    return true;
+  }
+
+  /**
+   * @return transactions that are running or waiting for a thread
+   */
+  public int pendingCount() {
+    return pending.get();
+  }
+
+  public long rejectedCount() {
+    return rejected.sum();
+  }
+
+  public long timedOutCount() {
+    return timedOut.sum();
+  }
+
+  public void close() {
+    if (executor != null) {
+      executor.close();
+    }
+    if (virtualThreads != null) {
+      virtualThreads.shutdown();
+    }
+  }
+
+  /**
+   * Virtual threads are only available on Java 21 or later, but we still want
+   * to build and run on older versions, so locate the factory reflectively.
+   */
+  private static ExecutorService newVirtualThreadPerTaskExecutor() {
+    try {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (Exception e) {
+      throw new IllegalStateException("Virtual threads require Java 21 or later (running "
+          + System.getProperty("java.version") + ")", e);
+    }
+  }
+
+  /**
+   * Indicates a transaction was rejected because too much work was already
+   * queued for the database.
+   */
+  public static class DbOverloadedException extends RuntimeException {
+    public DbOverloadedException() {
+      super("Too many requests are waiting for the database");
+    }
+  }
+}
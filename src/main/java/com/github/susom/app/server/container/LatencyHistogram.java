@@ -0,0 +1,136 @@
+/*
+ * Copyright 2026 The Board of Trustees of The Leland Stanford Junior University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.susom.app.server.container;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A latency histogram with log-linear buckets in the style of HdrHistogram:
+ * each power of two is split into 16 equal sub-buckets. Values up to 16
+ * nanoseconds are exact, and above that each bucket is at most 1/17 (about
+ * 6%) of its upper bound wide, up to 2^36 nanoseconds (about 69 seconds).
+ * Larger values share a single overflow bucket. Recording does not allocate
+ * or lock; each bucket is a striped {@link LongAdder}.
+ */
+public class LatencyHistogram {
+  private static final int SUB_BUCKET_BITS = 4;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int MAX_EXPONENT = 35;
+  private static final long[] BOUNDS_NANOS = bounds();
+  private final LongAdder[] buckets = new LongAdder[BOUNDS_NANOS.length + 1];
+  private final LongAdder sumNanos = new LongAdder();
+
+  public LatencyHistogram() {
+    for (int i = 0; i < buckets.length; i++) {
+      buckets[i] = new LongAdder();
+    }
+  }
+
+  public void record(long nanos) {
+    buckets[index(nanos)].increment();
+    sumNanos.add(nanos);
+  }
+
+  /**
+   * @return upper bounds (inclusive) of each bucket except the last, which is unbounded
+   */
+  public static long[] boundsNanos() {
+    return BOUNDS_NANOS.clone();
+  }
+
+  /**
+   * Copy the current (non-cumulative) bucket counts. The result has one
+   * more element than {@link #boundsNanos()}, for values above the last bound.
+   */
+  public long[] counts() {
+    long[] counts = new long[buckets.length];
+    for (int i = 0; i < buckets.length; i++) {
+      counts[i] = buckets[i].sum();
+    }
+    return counts;
+  }
+
+  public long count() {
+    long count = 0;
+    for (LongAdder bucket : buckets) {
+      count += bucket.sum();
+    }
+    return count;
+  }
+
+  public long sumNanos() {
+    return sumNanos.sum();
+  }
+
+  /**
+   * Estimate a percentile from the buckets. The result is the upper bound
+   * of the bucket containing the requested rank, so it errs on the high side
+   * (by less than the bucket precision described above).
+   *
+   * @param percentile between 0 and 100
+   * @return the estimate in nanoseconds, or zero if nothing has been recorded
+   */
+  public long percentileNanos(double percentile) {
+    long[] counts = counts();
+    long total = 0;
+    for (long count : counts) {
+      total += count;
+    }
+    if (total == 0) {
+      return 0;
+    }
+    long rank = (long) Math.ceil(total * percentile / 100.0);
+    long seen = 0;
+    for (int i = 0; i < counts.length; i++) {
+      seen += counts[i];
+      if (seen >= rank && counts[i] > 0) {
+        return i < BOUNDS_NANOS.length ? BOUNDS_NANOS[i] : Long.MAX_VALUE;
+      }
+    }
+    return Long.MAX_VALUE;
+  }
+
+  /**
+   * Find the bucket for a value. Working with one less than the value makes
+   * each bucket include its upper bound rather than its lower bound.
+   */
+  static int index(long nanos) {
+    long value = Math.max(nanos, 1) - 1;
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    if (exponent > MAX_EXPONENT) {
+      return BOUNDS_NANOS.length;
+    }
+    int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return SUB_BUCKETS + (exponent - SUB_BUCKET_BITS) * SUB_BUCKETS + subBucket;
+  }
+
+  private static long[] bounds() {
+    long[] bounds = new long[SUB_BUCKETS * (MAX_EXPONENT - SUB_BUCKET_BITS + 2)];
+    for (int i = 0; i < bounds.length; i++) {
+      if (i < SUB_BUCKETS) {
+        bounds[i] = i + 1;
+      } else {
+        int shift = (i - SUB_BUCKETS) / SUB_BUCKETS;
+        int subBucket = (i - SUB_BUCKETS) % SUB_BUCKETS;
+        bounds[i] = (long) (SUB_BUCKETS + subBucket + 1) << shift;
+      }
+    }
+    return bounds;
+  }
+}
@@ -16,17 +16,13 @@
 package com.github.susom.app.server.container;
 
 import com.github.susom.app.server.services.CreateSchema;
+import com.github.susom.app.server.services.SchemaMigrations;
 import com.github.susom.database.Config;
-import com.github.susom.database.DatabaseProviderVertx;
-import com.github.susom.database.DatabaseProviderVertx.Builder;
-import com.github.susom.vertx.base.DatabaseHealthCheck;
+import com.github.susom.database.DatabaseProvider;
+import com.github.susom.database.DatabaseProvider.Pool;
 import com.github.susom.vertx.base.PortInfo;
-import com.github.susom.vertx.base.Security;
-import com.github.susom.vertx.base.SecurityImpl;
+import io.vertx.core.DeploymentOptions;
 import io.vertx.core.Vertx;
-import io.vertx.core.http.HttpServerOptions;
-import io.vertx.core.net.JksOptions;
-import io.vertx.ext.web.Router;
 import java.io.File;
 import java.io.PrintStream;
 import java.nio.file.Files;
@@ -35,6 +31,11 @@
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -63,66 +64,126 @@ private void launch(String[] args) throws Exception {
     if (devMode) {
       log.warn("Running in development mode (INSECURE) because of property 'insecure.dev.mode'");
     }
+    if (config.getBooleanOrFalse("database.virtual.threads")) {
+      log.info("Database transactions will run on virtual threads because of property 'database.virtual.threads'");
+    }
     PortInfo listen = PortInfo.parseUrl(config.getString("listen.url", "http://0.0.0.0:8080"));
     String context = '/' + config.getString("app.context", "home");
 
     // Create the database schema if requested or we are running hsql the first time
     Set<String> argSet = new HashSet<>(Arrays.asList(args));
-    if (argSet.contains("create-database") || (devMode && !Files.exists(Paths.get(".hsql"))
-        && "jdbc:hsqldb:file:.hsql/db;shutdown=true".equals(config.getString("database.url")))) {
+    boolean createSchema = argSet.contains("create-database") || (devMode && !Files.exists(Paths.get(".hsql"))
+        && "jdbc:hsqldb:file:.hsql/db;shutdown=true".equals(config.getString("database.url")));
+    boolean launch = argSet.isEmpty() || argSet.contains("run");
+    if (createSchema && !launch) {
       CreateSchema.run(argSet, config);
       if (argSet.size() == 1 && argSet.contains("create-database")) {
         log.info("Only the create-database argument was provided, so exiting without starting the server");
         System.exit(0);
       }
     }
-    // TODO database upgrade checks
+
+    // Upgrade the database schema if requested. Otherwise we only apply the
+    // migrations this code cannot run without, and only if allowed to.
+    boolean migrate = argSet.contains("migrate-database") || (devMode ? config.getBooleanOrTrue("database.migrate")
+        : config.getBooleanOrFalse("database.migrate"));
+    if (argSet.contains("migrate-database") && !launch) {
+      schemaMigrations(config).migrate(true);
+      log.info("The migrate-database argument was provided without run, so exiting without starting the server");
+      System.exit(0);
+    }
 
     // Launch the server if requested
-    if (argSet.isEmpty() || argSet.contains("run")) {
-      Vertx vertx = Vertx.vertx();
-      SecureRandom random = createSecureRandom(vertx);
-      Builder db = DatabaseProviderVertx.pooledBuilder(vertx, config).withSqlParameterLogging();
-      Router root = rootRouter(vertx, context);
-      Security security = new SecurityImpl(vertx, root, random, config::getString);
-
-      new SecureApp(db, random, security, config).configureRouter(vertx, security.authenticatedRouter(context));
-
-      // Add status pages per DCS standards (JSON returned from /status and /status/app)
-      new DatabaseHealthCheck(vertx, db, config).addStatusHandlers(root);
-
-      // Start the server
-      HttpServerOptions options = new HttpServerOptions();
-      if (listen.proto().equals("https")) {
-//        String sslKeyType = config.getString("ssl.keystore.type", "pkcs12");
-        String sslKeyPath = config.getString("ssl.keystore.path", "local.ssl.pkcs12");
-        String sslKeyPassword = config.getString("ssl.keystore.password", "secret");
-//        if (devMode && !Files.exists(Paths.get(sslKeyPath))) {
-//          log.info("Dev mode: creating a self-signed keystore for SSL/TLS");
-//          sun.security.tools.keytool.Main.main(new String[] { "-keystore", sslKeyPath,
-//              "-storetype", sslKeyType, "-storepass", sslKeyPassword, "-genkey", "-keyalg", "RSA", "-validity",
-//              "3650", "-alias", "self", "-dname", "CN=localhost, OU=ME, O=Mine, L=Here, ST=CA, C=US" });
-//        }
-        options.setSsl(true).setKeyStoreOptions(new JksOptions().setPath(sslKeyPath).setPassword(sslKeyPassword));
+    if (launch) {
+      // In fast startup mode the port is opened first, the independent steps
+      // run concurrently, and connections are warmed up afterward (everything
+      // reports unavailable until the services exist, and the status page
+      // until warm up is done). Otherwise the same steps run one at a time on
+      // this thread, and the port is opened at the end.
+      boolean fastStart = config.getBooleanOrFalse("startup.fast");
+      ExecutorService startupThreads = fastStart ? Executors.newCachedThreadPool() : null;
+      Executor executor = fastStart ? startupThreads : Runnable::run;
+      StartupTimer timer = new StartupTimer();
+
+      CompletableFuture<Void> schema = (createSchema
+          ? CompletableFuture.runAsync(() -> timer.run("schema", () -> CreateSchema.run(argSet, config)), executor)
+          : CompletableFuture.<Void>completedFuture(null))
+          .thenRunAsync(() -> timer.run("schema check", () -> checkSchema(config, migrate)), executor);
+      Vertx vertx = timer.time("vertx", Vertx::vertx);
+
+      // Each verticle instance gets its own event loop, so deploying one per
+      // core lets routing, authentication and response writing use all of them
+      int instances = config.getInteger("http.instances", Runtime.getRuntime().availableProcessors());
+      CompletableFuture<Void> deployed = new CompletableFuture<>();
+      Runnable deploy = () -> {
+        long deployStart = System.nanoTime();
+        vertx.deployVerticle(AppVerticle.class.getName(), new DeploymentOptions().setInstances(instances), result -> {
+          timer.record("deploy", System.nanoTime() - deployStart);
+          if (result.succeeded()) {
+            deployed.complete(null);
+          } else {
+            deployed.completeExceptionally(result.cause());
+          }
+        });
+      };
+      if (fastStart) {
+        // The verticles answer with 503 until the services are registered below
+        AppServices.expect(vertx, config);
+        deploy.run();
+      }
+
+      CompletableFuture<SecureRandom> random = CompletableFuture.supplyAsync(() -> timer.time("random",
+          () -> createSecureRandom(vertx)), executor);
+      // The pool waits for the schema, since an embedded database may not
+      // cope with being created while another connection opens it
+      CompletableFuture<Pool> pool = schema.thenApplyAsync(v -> timer.time("pool",
+          () -> DatabaseProvider.createPool(config)), executor);
+      CompletableFuture<StaticAssets> staticAssets = CompletableFuture.supplyAsync(() -> timer.time("static",
+          () -> AppServices.createStaticAssets(config)), executor);
+      CompletableFuture.allOf(random, pool, staticAssets).join();
+      AppServices services = timer.time("services", () -> new AppServices(vertx, config, pool.join(),
+          random.join(), staticAssets.join()));
+      services.register(vertx);
+      if (!fastStart) {
+        deploy.run();
       }
-      options.setCompressionSupported(config.getBooleanOrTrue("http.compression"));
-      vertx.createHttpServer(options).requestHandler(root::accept).listen(listen.port(), listen.host(), result -> {
+
+      deployed.whenComplete((ignored, deployError) -> {
         try {
-          if (result.succeeded()) {
-            int actualPort = result.result().actualPort();
+          if (deployError == null) {
             if (devMode) {
-              log.info("Started server: {}://localhost:{}{}/", listen.proto(), actualPort, context);
+              log.info("Started server with {} instances: {}://localhost:{}{}/", instances, listen.proto(),
+                  services.actualPort(), context);
             } else {
-              log.info("Started server on port {}", actualPort);
+              log.info("Started server with {} instances on port {}", instances, services.actualPort());
             }
 
             // Make sure we cleanly shutdown Vert.x and the database pool on exit
-            addShutdownHook(vertx, db::close);
+            addShutdownHook(vertx, services::close);
+
+            CompletableFuture<Void> warm = fastStart
+                ? services.warmUp(config.getInteger("database.pool.size", 10), startupThreads)
+                : CompletableFuture.completedFuture(null);
+            warm.whenComplete((v, error) -> {
+              services.markReady();
+              log.info("Ready after {}", timer.summary());
+              if (startupThreads != null) {
+                startupThreads.shutdown();
+              }
+              if (migrate) {
+                migrateOnline(config);
+              }
+              if (argSet.contains("exit-when-ready")) {
+                // Used to record a class data sharing archive during the build. Exit
+                // from another thread since the shutdown hook needs the event loops.
+                new Thread(() -> System.exit(0), "exit-when-ready").start();
+              }
+            });
           } else {
-            log.error("Could not start server on port " + listen.port(), result.cause());
+            log.error("Could not start server on port " + listen.port(), deployError);
 
             vertx.close();
-            db.close();
+            services.close();
           }
         } catch (Throwable t) {
           log.error("Unexpected error", t);
@@ -132,6 +193,49 @@ private void launch(String[] args) throws Exception {
     }
   }
 
+  /**
+   * Make sure the database schema is one this code can use, applying any
+   * migrations that must be done before serving if we are allowed to.
+   *
+   * @throws IllegalStateException if the schema is not compatible
+   */
+  private void checkSchema(Config config, boolean migrate) {
+    Logger log = LoggerFactory.getLogger(Main.class);
+    SchemaMigrations migrations = schemaMigrations(config);
+    SchemaMigrations.Status status = migrations.status();
+    if (migrate && status.offlinePending() && !status.codeTooOld()) {
+      migrations.migrate(false);
+      status = migrations.status();
+    }
+    if (!status.compatible()) {
+      throw new IllegalStateException("Refusing to start because the database schema is not compatible ("
+          + status + "). Use the migrate-database argument or database.migrate=yes to upgrade it.");
+    }
+    log.info("Database schema is compatible: {}", status);
+  }
+
+  /**
+   * Apply the migrations that can run while we serve requests, in the background.
+   */
+  private void migrateOnline(Config config) {
+    Thread thread = new Thread(() -> {
+      try {
+        schemaMigrations(config).migrate(true);
+      } catch (Exception e) {
+        LoggerFactory.getLogger(Main.class).error("Unable to apply online schema migrations", e);
+      }
+    }, "schema-migrations");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  private SchemaMigrations schemaMigrations(Config config) {
+    return new SchemaMigrations(DatabaseProvider.fromDriverManager(config).withSqlParameterLogging())
+        .withThrottle(config.getInteger("database.migrate.chunk.size", 1000),
+            config.getLong("database.migrate.pause.millis", 100))
+        .withClaimWait(config.getLong("database.migrate.wait.millis", TimeUnit.MINUTES.toMillis(10)), 1000);
+  }
+
   private Config readConfig() {
     String properties = System.getProperty("properties", "conf/app.properties" + File.pathSeparator + "local.properties" + File.pathSeparator + "sample.properties");
     return Config.from().systemProperties().propertyFile(properties.split(File.pathSeparator)).get();
@@ -0,0 +1,286 @@
+/*
+ * Copyright 2026 The Board of Trustees of The Leland Stanford Junior University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.susom.app.server.container;
+
+import com.github.susom.app.server.services.MessageWriter;
+import com.github.susom.database.Config;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.RoutingContext;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Notify clients about new messages so they do not need to poll. Once the
+ * {@link MessageWriter} commits a batch, the new ids are published on the
+ * (local) event bus, and each {@link AppVerticle} instance forwards them to
+ * the clients connected to it using server-sent events.
+ *
+ * <p>Each event loop has a single event bus consumer, and each event is
+ * encoded once and the same buffer written to every connection. A client
+ * that cannot keep up will fill its (bounded) write queue; while that is
+ * the case further events for it are collapsed into a single summary
+ * carrying the count and highest id, which is sent once it catches up. A
+ * client that stays stuck longer than a threshold is disconnected, and a
+ * client that disconnects is forgotten straight away.
+ * Clients that receive a summary, or reconnect, can use the messages API
+ * with {@code ?after=} to fetch what they missed.</p>
+ */
+public class MessageEvents {
+  public static final String ADDRESS = "app.messages.added";
+  private static final Logger log = LoggerFactory.getLogger(MessageEvents.class);
+  private static final Buffer KEEPALIVE = Buffer.buffer(": keepalive\n\n");
+  private final Vertx vertx;
+  private final int maxConnections;
+  private final int bufferBytes;
+  private final long maxStallNanos;
+  private final long keepaliveMillis;
+  private final AtomicInteger connections = new AtomicInteger();
+  private final LongAdder published = new LongAdder();
+  private final LongAdder coalesced = new LongAdder();
+  private final LongAdder dropped = new LongAdder();
+
+  public MessageEvents(Vertx vertx, Config config, MessageWriter writer) {
+    this.vertx = vertx;
+    maxConnections = config.getInteger("events.max.connections", 10000);
+    bufferBytes = config.getInteger("events.buffer.bytes", 64 * 1024);
+    maxStallNanos = TimeUnit.MILLISECONDS.toNanos(config.getLong("events.max.stall.millis", 30000));
+    keepaliveMillis = config.getLong("events.keepalive.millis", 15000);
+
+    writer.addListener(this::publish);
+  }
+
+  /**
+   * Announce messages that have been committed to the database.
+   */
+  public void publish(List<Long> messageIds) {
+    published.increment();
+    vertx.eventBus().publish(ADDRESS, new JsonObject().put("ids", new JsonArray(new ArrayList<>(messageIds))));
+  }
+
+  /**
+   * Create the handler that streams events to clients. Call this once for
+   * each verticle instance while it is starting, so events are delivered on
+   * the same event loop as the connections it serves.
+   */
+  public Handler<RoutingContext> streamHandler(Vertx vertx) {
+    Subscribers subscribers = new Subscribers();
+    vertx.eventBus().<JsonObject>consumer(ADDRESS, message -> subscribers.send(message.body().getJsonArray("ids")));
+    vertx.setPeriodic(keepaliveMillis, id -> subscribers.keepalive());
+    return subscribers::subscribe;
+  }
+
+  public int connectionCount() {
+    return connections.get();
+  }
+
+  public long publishedCount() {
+    return published.sum();
+  }
+
+  public long coalescedCount() {
+    return coalesced.sum();
+  }
+
+  public long droppedCount() {
+    return dropped.sum();
+  }
+
+  /**
+   * The connections served by one event loop. Only accessed from that event loop.
+   */
+  private class Subscribers {
+    private final Set<Subscriber> subscribers = new LinkedHashSet<>();
+    private boolean iterating;
+
+    void subscribe(RoutingContext rc) {
+      if (connections.incrementAndGet() > maxConnections) {
+        connections.decrementAndGet();
+        rc.response().setStatusCode(503).putHeader("Retry-After", "10").putHeader("content-type", "application/json")
+            .end(new JsonObject().put("error", "Too many clients are listening for events").encode());
+        return;
+      }
+
+      // If the response is compressed, the compressor flushes every write,
+      // so events are not held back
+      HttpServerResponse response = rc.response();
+      response.setChunked(true).setWriteQueueMaxSize(bufferBytes)
+          .putHeader("content-type", "text/event-stream;charset=UTF-8")
+          .putHeader("Cache-Control", "no-cache")
+          .putHeader("X-Accel-Buffering", "no");
+      response.write("retry: 5000\n\n");
+
+      Subscriber subscriber = new Subscriber(response);
+      response.drainHandler(v -> subscriber.flush());
+      // Not response.closeHandler(), which would replace the one that runs the end handlers
+      rc.addEndHandler(result -> forget(subscriber));
+      subscribers.add(subscriber);
+    }
+
+    void send(JsonArray ids) {
+      if (subscribers.isEmpty() || ids.isEmpty()) {
+        return;
+      }
+      long lastId = 0;
+      for (int i = 0; i < ids.size(); i++) {
+        lastId = Math.max(lastId, ids.getLong(i));
+      }
+      Buffer event = event(lastId, new JsonObject().put("count", ids.size()).put("lastId", lastId).put("ids", ids));
+
+      long now = System.nanoTime();
+      iterating = true;
+      try {
+        Iterator<Subscriber> iterator = subscribers.iterator();
+        while (iterator.hasNext()) {
+          Subscriber subscriber = iterator.next();
+          if (subscriber.gone || !subscriber.send(event, ids.size(), lastId, now)) {
+            forget(subscriber);
+            iterator.remove();
+          }
+        }
+      } finally {
+        iterating = false;
+      }
+    }
+
+    void keepalive() {
+      long now = System.nanoTime();
+      iterating = true;
+      try {
+        Iterator<Subscriber> iterator = subscribers.iterator();
+        while (iterator.hasNext()) {
+          Subscriber subscriber = iterator.next();
+          if (subscriber.gone || !subscriber.keepalive(now)) {
+            forget(subscriber);
+            iterator.remove();
+          }
+        }
+      } finally {
+        iterating = false;
+      }
+    }
+
+    /**
+     * Stop counting a subscriber. If this happens while we are going through
+     * the subscribers (closing a connection can do that), the loop removes it.
+     */
+    void forget(Subscriber subscriber) {
+      if (!subscriber.gone) {
+        subscriber.gone = true;
+        connections.decrementAndGet();
+      }
+      if (!iterating) {
+        subscribers.remove(subscriber);
+      }
+    }
+  }
+
+  private class Subscriber {
+    private final HttpServerResponse response;
+    private boolean gone;
+    private long stalledSince;
+    private int pendingCount;
+    private long pendingLastId;
+
+    Subscriber(HttpServerResponse response) {
+      this.response = response;
+    }
+
+    /**
+     * @return false if this subscriber is gone and should be forgotten
+     */
+    boolean send(Buffer event, int count, long lastId, long now) {
+      if (!writable(now)) {
+        if (response.closed()) {
+          return false;
+        }
+        // Still stuck, so remember only a summary of what was missed
+        coalesced.increment();
+        pendingCount += count;
+        pendingLastId = Math.max(pendingLastId, lastId);
+        return true;
+      }
+      if (pendingCount > 0) {
+        pendingCount += count;
+        pendingLastId = Math.max(pendingLastId, lastId);
+        flush();
+      } else {
+        response.write(event);
+      }
+      return true;
+    }
+
+    boolean keepalive(long now) {
+      if (writable(now)) {
+        response.write(KEEPALIVE);
+        return true;
+      }
+      return !response.closed();
+    }
+
+    /**
+     * Check whether we can write to this subscriber, disconnecting it if it
+     * has not accepted anything for too long.
+     */
+    private boolean writable(long now) {
+      if (response.closed()) {
+        return false;
+      }
+      if (!response.writeQueueFull()) {
+        stalledSince = 0;
+        return true;
+      }
+      if (stalledSince == 0) {
+        stalledSince = now;
+      } else if (now - stalledSince > maxStallNanos) {
+        log.debug("Disconnecting event subscriber that stopped reading");
+        dropped.increment();
+        response.close();
+      }
+      return false;
+    }
+
+    /**
+     * Send a single summary for everything collapsed while the client was behind.
+     */
+    void flush() {
+      stalledSince = 0;
+      if (pendingCount == 0 || response.closed()) {
+        return;
+      }
+      response.write(event(pendingLastId, new JsonObject().put("count", pendingCount).put("lastId", pendingLastId)
+          .put("coalesced", true)));
+      pendingCount = 0;
+      pendingLastId = 0;
+    }
+  }
+
+  private static Buffer event(long lastId, JsonObject data) {
+    return Buffer.buffer("id: " + lastId + "\nevent: messages\ndata: " + data.encode() + "\n\n");
+  }
+}
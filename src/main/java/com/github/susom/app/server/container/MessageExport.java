@@ -0,0 +1,120 @@
+/*
+ * Copyright 2026 The Board of Trustees of The Leland Stanford Junior University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.susom.app.server.container;
+
+import com.github.susom.app.server.services.MessageDao;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.RoutingContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stream messages to an HTTP client as newline-delimited JSON. Messages are
+ * read a page at a time using keyset pagination, each page in its own short
+ * transaction (with its own timeout), and the next page is not read until
+ * the client has accepted the previous one. That way memory use stays
+ * constant no matter how many rows are exported, and a slow client does not
+ * hold a database connection or cause data to pile up on the server.
+ * Pages are read from a replica database when one is available.
+ */
+class MessageExport {
+  private static final Logger log = LoggerFactory.getLogger(MessageExport.class);
+  private final ReplicaRouter db;
+  private final long timeoutMillis;
+  private final RoutingContext rc;
+  private final HttpServerResponse response;
+  private final int pageSize;
+  private long remaining;
+
+  /**
+   * @param limit the maximum number of messages to send, or null for all of them
+   */
+  MessageExport(ReplicaRouter db, long timeoutMillis, RoutingContext rc, int pageSize, Long limit) {
+    this.db = db;
+    this.timeoutMillis = timeoutMillis;
+    this.rc = rc;
+    this.response = rc.response();
+    this.pageSize = pageSize;
+    this.remaining = limit == null ? Long.MAX_VALUE : limit;
+  }
+
+  void start(long afterId) {
+    response.setChunked(true).putHeader("content-type", "application/x-ndjson");
+    if (remaining == 0) {
+      response.end();
+    } else {
+      readPage(afterId);
+    }
+  }
+
+  private void readPage(long afterId) {
+    int limit = (int) Math.min(pageSize, remaining);
+    db.transact(rc, timeoutMillis, (dbs, replica) -> {
+      Page page = new Page(afterId);
+      page.count = new MessageDao(dbs).forEachMessageAfter(afterId, limit, message -> {
+        page.buffer.appendString(new JsonObject().put("id", message.messageId)
+            .put("message", message.message).encode()).appendString("\n");
+        page.lastId = message.messageId;
+      });
+      return page;
+    }, result -> {
+      if (response.closed()) {
+        log.debug("Client went away, so stopping the message export after id " + afterId);
+        return;
+      }
+      if (result.failed()) {
+        if (response.headWritten()) {
+          // Too late for a proper error response, so make sure the client
+          // can tell the export is incomplete
+          log.error("Unable to continue the message export after id " + afterId, result.cause());
+          response.close();
+        } else if (!DbExecutor.sendUnavailable(rc, result.cause())) {
+          rc.fail(result.cause());
+        }
+        return;
+      }
+
+      Page page = result.result();
+      if (page.count > 0) {
+        response.write(page.buffer);
+      }
+      remaining -= page.count;
+      if (page.count < limit || remaining == 0) {
+        response.end();
+      } else if (response.writeQueueFull()) {
+        // Backpressure: wait for the client to catch up before reading more
+        response.drainHandler(v -> {
+          response.drainHandler(null);
+          readPage(page.lastId);
+        });
+      } else {
+        readPage(page.lastId);
+      }
+    });
+  }
+
+  private static class Page {
+    final Buffer buffer = Buffer.buffer();
+    long lastId;
+    int count;
+
+    Page(long afterId) {
+      lastId = afterId;
+    }
+  }
+}
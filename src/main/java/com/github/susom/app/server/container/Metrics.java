@@ -0,0 +1,335 @@
+/*
+ * Copyright 2026 The Board of Trustees of The Leland Stanford Junior University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.susom.app.server.container;
+
+import com.github.susom.database.DbCodeTyped;
+import io.vertx.core.Handler;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.ext.web.Router;
+import io.vertx.ext.web.RoutingContext;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Collect request metrics for the application and publish them in the
+ * Prometheus text format. Install this as the first handler on the root
+ * router, and wrap individual API handlers with {@link #timed(String, Handler)}
+ * so requests are attributed to a named route. Anything not wrapped is
+ * counted under the route "other". Long-lived responses, such as event
+ * streams, should be wrapped with {@link #streaming(String, Handler)} instead,
+ * so they count as in-flight connections without skewing the latencies.
+ *
+ * <p>All recording uses striped counters, so instrumenting a request does
+ * not lock or contend with other event loops. Request timers are reused
+ * from a pool on each event loop, so it does not allocate either.</p>
+ *
+ * <p>The timer is installed as the response end handler, which
+ * {@link RoutingContext#addEndHandler(Handler)} replaces. Only call that from
+ * handlers wrapped with {@link #streaming(String, Handler)}, which accounts
+ * for the request itself.</p>
+ */
+public class Metrics implements Handler<RoutingContext> {
+  private static final String ROUTE_KEY = Metrics.class.getName() + ".route";
+  private static final String[] STATUS_CLASSES = { "aborted", "1xx", "2xx", "3xx", "4xx", "5xx" };
+  private static final int[] PUBLISHED_BUCKETS = publishedBuckets();
+  // A request ends on the event loop it started on, so each has its own pool
+  private static final ThreadLocal<ArrayDeque<RequestTimer>> idleTimers = ThreadLocal.withInitial(ArrayDeque::new);
+  private final Map<String, RouteMetrics> routes = new ConcurrentHashMap<>();
+  private final List<Sample> samples = new ArrayList<>();
+  private final RouteMetrics other = route("other");
+
+  /**
+   * Look up the metrics for a route, creating them if necessary. Do this when
+   * configuring the router rather than on every request.
+   */
+  public RouteMetrics route(String name) {
+    return routes.computeIfAbsent(name, RouteMetrics::new);
+  }
+
+  /**
+   * The metrics for the route handling this request, as identified by
+   * {@link #timed(String, Handler)}.
+   */
+  public static RouteMetrics route(RoutingContext rc) {
+    return rc.get(ROUTE_KEY);
+  }
+
+  /**
+   * Wrap a handler so requests it receives are recorded under the provided route name.
+   */
+  public Handler<RoutingContext> timed(String routeName, Handler<RoutingContext> handler) {
+    RouteMetrics route = route(routeName);
+    return rc -> {
+      RouteMetrics previous = rc.get(ROUTE_KEY);
+      if (previous != route) {
+        (previous == null ? other : previous).inFlight.decrement();
+        route.inFlight.increment();
+        rc.put(ROUTE_KEY, route);
+      }
+      handler.handle(rc);
+    };
+  }
+
+  /**
+   * Wrap a handler for long-lived responses, such as server-sent events.
+   * These are recorded under the provided route name as in-flight
+   * connections and by status, but their duration is not added to the
+   * latency histogram, where connections lasting minutes would swamp the
+   * ordinary requests.
+   */
+  public Handler<RoutingContext> streaming(String routeName, Handler<RoutingContext> handler) {
+    RouteMetrics route = route(routeName);
+    return rc -> {
+      RouteMetrics previous = rc.get(ROUTE_KEY);
+      (previous == null ? other : previous).inFlight.decrement();
+      route.inFlight.increment();
+      rc.put(ROUTE_KEY, route);
+      // This replaces the request timer (which is left for the garbage collector),
+      // and also lets the handler add its own end handlers
+      rc.addEndHandler(result -> {
+        route.inFlight.decrement();
+        route.statusCounts[statusClass(rc.response(), result.succeeded())].increment();
+      });
+      handler.handle(rc);
+    };
+  }
+
+  /**
+   * Wrap database code so the time spent waiting for a worker thread and
+   * the time spent executing are recorded for the route. Call this on the
+   * event loop right before handing the code to the database.
+   */
+  public static <T> DbCodeTyped<T> timedDb(RoutingContext rc, DbCodeTyped<T> code) {
+    RouteMetrics route = route(rc);
+    if (route == null) {
+      return code;
+    }
+    long queued = System.nanoTime();
+    return dbs -> {
+      long started = System.nanoTime();
+      route.dbWait.record(started - queued);
+      try {
+        return code.run(dbs);
+      } finally {
+        route.dbExecute.record(System.nanoTime() - started);
+      }
+    };
+  }
+
+  /**
+   * Publish an additional value with the metrics, such as a cache statistic.
+   *
+   * @param type the Prometheus metric type (usually "counter" or "gauge")
+   */
+  public synchronized void addSample(String name, String type, String help, LongSupplier value) {
+    samples.add(new Sample(name, type, help, value));
+  }
+
+  /**
+   * Serve the metrics from the provided path on this router. Anybody who
+   * can reach the path can read them, so only do this when the port is not
+   * exposed to untrusted clients.
+   */
+  public void addMetricsHandler(Router router, String path) {
+    router.get(path).handler(rc -> rc.response().putHeader("content-type", "text/plain; version=0.0.4")
+        .end(prometheusText()));
+  }
+
+  @Override
+  public void handle(RoutingContext rc) {
+    other.inFlight.increment();
+    RequestTimer timer = idleTimers.get().poll();
+    if (timer == null) {
+      timer = new RequestTimer();
+    }
+    timer.start(this, rc);
+    // Rather than rc.addEndHandler(), which allocates its own bookkeeping for every
+    // request. The response calls this when it ends, or when the connection closes first.
+    rc.response().endHandler(timer);
+    rc.next();
+  }
+
+  public String prometheusText() {
+    StringBuilder out = new StringBuilder(4096);
+    List<RouteMetrics> routeList = new ArrayList<>(routes.values());
+
+    header(out, "http_requests_total", "counter", "Completed HTTP requests by route and status class");
+    for (RouteMetrics route : routeList) {
+      for (int i = 0; i < STATUS_CLASSES.length; i++) {
+        out.append("http_requests_total{route=\"").append(route.name).append("\",status=\"")
+            .append(STATUS_CLASSES[i]).append("\"} ").append(route.statusCounts[i].sum()).append('\n');
+      }
+    }
+
+    header(out, "http_requests_in_flight", "gauge", "HTTP requests currently being processed");
+    for (RouteMetrics route : routeList) {
+      out.append("http_requests_in_flight{route=\"").append(route.name).append("\"} ")
+          .append(route.inFlight.sum()).append('\n');
+    }
+
+    header(out, "http_request_duration_seconds", "histogram", "Time to complete HTTP requests");
+    for (RouteMetrics route : routeList) {
+      histogram(out, "http_request_duration_seconds", route.name, route.latency);
+    }
+
+    header(out, "db_wait_duration_seconds", "histogram", "Time database work waited for a worker thread");
+    for (RouteMetrics route : routeList) {
+      histogram(out, "db_wait_duration_seconds", route.name, route.dbWait);
+    }
+
+    header(out, "db_execute_duration_seconds", "histogram", "Time spent executing database work");
+    for (RouteMetrics route : routeList) {
+      histogram(out, "db_execute_duration_seconds", route.name, route.dbExecute);
+    }
+
+    synchronized (this) {
+      for (Sample sample : samples) {
+        header(out, sample.name, sample.type, sample.help);
+        out.append(sample.name).append(' ').append(sample.value.getAsLong()).append('\n');
+      }
+    }
+    return out.toString();
+  }
+
+  private void header(StringBuilder out, String name, String type, String help) {
+    out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+    out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+  }
+
+  private void histogram(StringBuilder out, String name, String route, LatencyHistogram histogram) {
+    long[] bounds = LatencyHistogram.boundsNanos();
+    long[] counts = histogram.counts();
+    long cumulative = 0;
+    int next = 0;
+    for (int i = 0; i < counts.length; i++) {
+      cumulative += counts[i];
+      if (next < PUBLISHED_BUCKETS.length && PUBLISHED_BUCKETS[next] == i) {
+        next++;
+        out.append(name).append("_bucket{route=\"").append(route).append("\",le=\"")
+            .append(Double.toString(bounds[i] / 1e9)).append("\"} ").append(cumulative).append('\n');
+      }
+    }
+    out.append(name).append("_bucket{route=\"").append(route).append("\",le=\"+Inf\"} ")
+        .append(cumulative).append('\n');
+    out.append(name).append("_sum{route=\"").append(route).append("\"} ")
+        .append(histogram.sumNanos() / 1e9).append('\n');
+    out.append(name).append("_count{route=\"").append(route).append("\"} ").append(cumulative).append('\n');
+  }
+
+  /**
+   * Publish four buckets per power of two from 16 microseconds up, which is
+   * plenty for dashboards and alerts while keeping the output small. The
+   * full precision is still available in-process.
+   */
+  private static int[] publishedBuckets() {
+    long[] bounds = LatencyHistogram.boundsNanos();
+    List<Integer> published = new ArrayList<>();
+    for (int i = 0; i < bounds.length; i++) {
+      // Bounds of 1, 1.25, 1.5 or 1.75 times a power of two have only the top three bits set
+      int highestBit = 63 - Long.numberOfLeadingZeros(bounds[i]);
+      if (bounds[i] >= 16384 && Long.numberOfTrailingZeros(bounds[i]) >= highestBit - 2) {
+        published.add(i);
+      }
+    }
+    int[] result = new int[published.size()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = published.get(i);
+    }
+    return result;
+  }
+
+  private static int statusClass(HttpServerResponse response, boolean ended) {
+    int statusClass = ended ? response.getStatusCode() / 100 : 0;
+    return statusClass < 0 || statusClass >= STATUS_CLASSES.length ? 0 : statusClass;
+  }
+
+  /**
+   * Completes the metrics for one request, whether the response was sent
+   * or the connection closed first (recorded as "aborted"), and then goes
+   * back to the pool for another request.
+   */
+  private static class RequestTimer implements Handler<Void> {
+    private Metrics metrics;
+    private RoutingContext rc;
+    private long start;
+
+    void start(Metrics metrics, RoutingContext rc) {
+      this.metrics = metrics;
+      this.rc = rc;
+      start = System.nanoTime();
+    }
+
+    @Override
+    public void handle(Void ignored) {
+      long nanos = System.nanoTime() - start;
+      RouteMetrics route = rc.get(ROUTE_KEY);
+      if (route == null) {
+        route = metrics.other;
+      }
+      HttpServerResponse response = rc.response();
+      route.inFlight.decrement();
+      route.statusCounts[statusClass(response, response.ended())].increment();
+      route.latency.record(nanos);
+      // Let go of the response as well, which will not call this again anyway
+      response.endHandler(null);
+      metrics = null;
+      rc = null;
+      idleTimers.get().push(this);
+    }
+  }
+
+  /**
+   * Metrics collected for one logical route (API) of the application.
+   */
+  public static class RouteMetrics {
+    final String name;
+    final LongAdder inFlight = new LongAdder();
+    final LongAdder[] statusCounts = new LongAdder[STATUS_CLASSES.length];
+    final LatencyHistogram latency = new LatencyHistogram();
+    final LatencyHistogram dbWait = new LatencyHistogram();
+    final LatencyHistogram dbExecute = new LatencyHistogram();
+
+    RouteMetrics(String name) {
+      this.name = name;
+      for (int i = 0; i < statusCounts.length; i++) {
+        statusCounts[i] = new LongAdder();
+      }
+    }
+
+    public LatencyHistogram latency() {
+      return latency;
+    }
+  }
+
+  private static class Sample {
+    final String name;
+    final String type;
+    final String help;
+    final LongSupplier value;
+
+    Sample(String name, String type, String help, LongSupplier value) {
+      this.name = name;
+      this.type = type;
+      this.help = help;
+      this.value = value;
+    }
+  }
+}
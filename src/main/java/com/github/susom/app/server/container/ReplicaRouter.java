@@ -0,0 +1,246 @@
+/*
+ * Copyright 2026 The Board of Trustees of The Leland Stanford Junior University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.susom.app.server.container;
+
+import com.github.susom.database.Config;
+import com.github.susom.database.ConfigFrom;
+import com.github.susom.database.Database;
+import com.github.susom.database.DatabaseProvider;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.ext.web.RoutingContext;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Send read-only transactions to a replica database when one is configured
+ * (database.replica.url) and it is keeping up, and to the primary otherwise.
+ *
+ * <p>Like the database health check, a background thread probes the replica
+ * regularly. Each probe records the time in app_replica_heartbeat on the
+ * primary and reads back the latest time the replica has received, so we
+ * know both that the replica answers and how far behind it is. Reads go to
+ * the primary if the last probe failed, is too old, or saw more lag than
+ * database.replica.max.lag.millis allows.</p>
+ *
+ * <p>A replica read that fails for a reason other than running out of time
+ * (including being rejected because the replica workers are all busy) is
+ * retried on the primary, which is safe because the code is read-only.
+ * Callers may also ask for a result from the replica to be confirmed on the
+ * primary, for example when something a client just wrote was not found.</p>
+ */
+public class ReplicaRouter {
+  private static final Logger log = LoggerFactory.getLogger(ReplicaRouter.class);
+  private static final String[] POOL_KEYS = { "url", "user", "password", "flavor", "driver.class", "pool.size" };
+  private final DbExecutor primary;
+  private final DatabaseProvider.Builder primaryDb;
+  private final DbExecutor replica;
+  private final DatabaseProvider.Builder replicaDb;
+  private final long checkMillis;
+  private final long maxLagMillis;
+  private final Thread thread;
+  private final LongAdder replicaReads = new LongAdder();
+  private final LongAdder primaryReads = new LongAdder();
+  private final LongAdder retries = new LongAdder();
+  private volatile boolean healthy;
+  private volatile long lastCheckMillis;
+  private volatile long lagMillis = -1;
+  private volatile boolean closed;
+  private boolean failureLogged;
+
+  /**
+   * @param primary runs transactions on the primary database
+   * @param primaryDb the primary database, used to record heartbeats
+   */
+  public ReplicaRouter(Vertx vertx, Config config, DbExecutor primary, DatabaseProvider.Builder primaryDb) {
+    this.primary = primary;
+    this.primaryDb = primaryDb;
+    checkMillis = config.getLong("database.replica.check.millis", 2000);
+    maxLagMillis = config.getLong("database.replica.max.lag.millis", 5000);
+
+    if (config.getString("database.replica.url") == null) {
+      replica = null;
+      replicaDb = null;
+      thread = null;
+      return;
+    }
+
+    // Settings not given for the replica are the same as for the primary
+    ConfigFrom replicaConfig = Config.from();
+    for (String key : POOL_KEYS) {
+      String value = config.getString("database.replica." + key, config.getString("database." + key));
+      if (value != null) {
+        replicaConfig.value("database." + key, value);
+      }
+    }
+    replicaDb = DatabaseProvider.fromPool(DatabaseProvider.createPool(replicaConfig.get())).withSqlParameterLogging();
+    replica = new DbExecutor(vertx, replicaDb, "app-db-replica",
+        config.getInteger("database.replica.pool.size", config.getInteger("database.pool.size", 10)),
+        config.getInteger("database.max.queued", 100), config.getBooleanOrFalse("database.virtual.threads"));
+    thread = new Thread(this::run, "replica-monitor");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Run a read-only transaction. See {@link DbExecutor#transact(RoutingContext, long,
+   * com.github.susom.database.DbCodeTyped, Handler)} for how overload and timeouts
+   * are reported.
+   */
+  public <T> void transact(RoutingContext rc, long timeoutMillis, ReadCode<T> code, Handler<AsyncResult<T>> handler) {
+    transact(rc, timeoutMillis, code, result -> false, handler);
+  }
+
+  /**
+   * Run a read-only transaction, repeating it on the primary if the result
+   * from the replica might be out of date.
+   *
+   * @param confirm true for results from the replica that should be read
+   *                again from the primary
+   */
+  public <T> void transact(RoutingContext rc, long timeoutMillis, ReadCode<T> code, Predicate<T> confirm,
+                           Handler<AsyncResult<T>> handler) {
+    if (!isReplicaUsable()) {
+      primaryReads.increment();
+      primary.transact(rc, timeoutMillis, dbs -> code.run(dbs, false), handler);
+      return;
+    }
+
+    replicaReads.increment();
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    replica.transact(rc, timeoutMillis, dbs -> code.run(dbs, true), result -> {
+      if (result.succeeded() ? !confirm.test(result.result()) : result.cause() instanceof TimeoutException) {
+        handler.handle(result);
+        return;
+      }
+      if (result.failed()) {
+        log.debug("Read from replica failed, trying the primary", result.cause());
+      }
+      retries.increment();
+      long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+      primary.transact(rc, Math.max(remainingMillis, 1), dbs -> code.run(dbs, false), handler);
+    });
+  }
+
+  /**
+   * The database to use for large reads that run outside of any request
+   * (such as building the search index) and can tolerate the replica lag.
+   */
+  public DatabaseProvider.Builder bulkReadDb() {
+    return isReplicaUsable() ? replicaDb : primaryDb;
+  }
+
+  /**
+   * @return true if reads are currently being sent to the replica
+   */
+  public boolean isReplicaUsable() {
+    return replica != null && healthy && lagMillis <= maxLagMillis
+        && System.currentTimeMillis() - lastCheckMillis < checkMillis * 3;
+  }
+
+  /**
+   * @return how far behind the primary the replica was at the last check,
+   *         or -1 if unknown
+   */
+  public long lagMillis() {
+    return lagMillis;
+  }
+
+  public long replicaReadCount() {
+    return replicaReads.sum();
+  }
+
+  public long primaryReadCount() {
+    return primaryReads.sum();
+  }
+
+  /**
+   * @return reads that were sent to the replica and then run again on the primary
+   */
+  public long retryCount() {
+    return retries.sum();
+  }
+
+  public void close() {
+    closed = true;
+    if (thread != null) {
+      thread.interrupt();
+      replica.close();
+      replicaDb.close();
+    }
+  }
+
+  private void run() {
+    while (!closed) {
+      boolean wasUsable = isReplicaUsable();
+      try {
+        long now = System.currentTimeMillis();
+        primaryDb.transact(dbs -> dbs.get().toUpdate("update app_replica_heartbeat set beat_millis=?"
+            + " where heartbeat_id=1 and beat_millis<?").argLong(now).argLong(now).update());
+        long[] beatMillis = new long[1];
+        replicaDb.transact(dbs -> beatMillis[0] = dbs.get().toSelect("select beat_millis from app_replica_heartbeat"
+            + " where heartbeat_id=1").queryLongOrZero());
+        lagMillis = beatMillis[0] == 0 ? -1 : Math.max(0, System.currentTimeMillis() - beatMillis[0]);
+        healthy = beatMillis[0] != 0;
+        lastCheckMillis = System.currentTimeMillis();
+        failureLogged = false;
+      } catch (Exception e) {
+        if (closed) {
+          return;
+        }
+        healthy = false;
+        lagMillis = -1;
+        if (failureLogged) {
+          log.debug("Replica check failed", e);
+        } else {
+          log.warn("Unable to check the replica database", e);
+          failureLogged = true;
+        }
+      }
+
+      boolean usable = isReplicaUsable();
+      if (usable != wasUsable) {
+        if (usable) {
+          log.info("Sending reads to the replica database (lag {}ms)", lagMillis);
+        } else {
+          log.warn("Sending reads to the primary database because the replica is {}",
+              healthy ? "behind by " + lagMillis + "ms" : "not responding");
+        }
+      }
+
+      try {
+        Thread.sleep(checkMillis);
+      } catch (InterruptedException e) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Read-only database code, which is told whether it is running against
+   * the replica (whose data may lag behind the primary) or the primary.
+   */
+  @FunctionalInterface
+  public interface ReadCode<T> {
+    T run(Supplier<Database> dbs, boolean replica) throws Exception;
+  }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2026 The Board of Trustees of The Leland Stanford Junior University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.susom.app.server.container;
+
+import com.github.susom.app.server.services.MessageDao;
+import com.github.susom.app.server.services.MessageDao.Message;
+import com.github.susom.app.server.services.MessageSearchIndex;
+import com.github.susom.database.DatabaseProvider;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.MessageConsumer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keep a {@link MessageSearchIndex} up to date. When the application starts
+ * the index is built by reading the whole table in pages, and after that
+ * (as well as during, since events are queued) the messages announced on
+ * the {@link MessageEvents} address, whether written here or on another
+ * node, are read back and added. The initial build reads from the replica
+ * database when one is available, finishing with the newest rows from the
+ * primary in case the replica is behind.
+ *
+ * <p>All of this happens on one background thread with its own database
+ * connection, so indexing never competes with requests for worker threads
+ * and is never rejected when the application is busy.</p>
+ */
+public class SearchIndexer {
+  private static final Logger log = LoggerFactory.getLogger(SearchIndexer.class);
+  private final MessageSearchIndex index = new MessageSearchIndex();
+  private final DatabaseProvider.Builder db;
+  private final ReplicaRouter reads;
+  private final int pageSize;
+  private final LinkedBlockingQueue<Long> queue = new LinkedBlockingQueue<>();
+  private final MessageConsumer<JsonObject> consumer;
+  private final Thread thread;
+  private volatile boolean ready;
+  private volatile boolean closed;
+
+  /**
+   * @param db the primary database
+   * @param reads decides where the initial build reads from
+   */
+  public SearchIndexer(Vertx vertx, DatabaseProvider.Builder db, ReplicaRouter reads, int pageSize) {
+    this.db = db;
+    this.reads = reads;
+    this.pageSize = pageSize;
+    consumer = vertx.eventBus().consumer(MessageEvents.ADDRESS, message -> {
+      JsonArray ids = message.body().getJsonArray("ids");
+      for (int i = 0; i < ids.size(); i++) {
+        queue.add(ids.getLong(i));
+      }
+    });
+    thread = new Thread(this::run, "search-indexer");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  public MessageSearchIndex index() {
+    return index;
+  }
+
+  /**
+   * @return true once the initial build from the database has completed
+   */
+  public boolean isReady() {
+    return ready;
+  }
+
+  public void close() {
+    closed = true;
+    consumer.unregister();
+    thread.interrupt();
+  }
+
+  private void run() {
+    try {
+      rebuild();
+      ready = true;
+
+      List<Long> batch = new ArrayList<>();
+      while (!closed) {
+        Long first = queue.poll(1, TimeUnit.SECONDS);
+        if (first == null) {
+          continue;
+        }
+        batch.add(first);
+        queue.drainTo(batch, pageSize - 1);
+        try {
+          db.transact(dbs -> {
+            for (Message message : new MessageDao(dbs).findMessagesByIds(batch)) {
+              if (message != null) {
+                index.add(message);
+              }
+            }
+          });
+        } catch (Exception e) {
+          // Try again later rather than leaving these out of the index
+          log.warn("Unable to index " + batch.size() + " new messages, will retry", e);
+          queue.addAll(batch);
+          Thread.sleep(TimeUnit.SECONDS.toMillis(5));
+        }
+        batch.clear();
+      }
+    } catch (InterruptedException e) {
+      if (!closed) {
+        log.warn("Search indexer interrupted");
+      }
+    }
+  }
+
+  private void rebuild() throws InterruptedException {
+    long start = System.nanoTime();
+    long[] afterId = { 0 };
+    boolean replicaDone = false;
+    while (!closed) {
+      try {
+        DatabaseProvider.Builder pageDb = replicaDone ? db : reads.bulkReadDb();
+        int[] count = { 0 };
+        pageDb.transact(dbs -> count[0] = new MessageDao(dbs).forEachMessageAfter(afterId[0], pageSize, message -> {
+          index.add(message);
+          afterId[0] = message.messageId;
+        }));
+        if (count[0] < pageSize) {
+          if (pageDb == db) {
+            break;
+          }
+          // The replica may be missing the newest rows, so finish on the primary
+          replicaDone = true;
+        }
+      } catch (Exception e) {
+        log.warn("Unable to read messages for the search index, will retry", e);
+        Thread.sleep(TimeUnit.SECONDS.toMillis(5));
+      }
+    }
+    log.info("Built search index of {} messages with {} words in {}ms", index.size(), index.termCount(),
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+  }
+}
@@ -15,20 +15,38 @@
  */
 package com.github.susom.app.server.container;
 
+import com.github.susom.app.server.services.MessageCache;
 import com.github.susom.app.server.services.MessageDao;
 import com.github.susom.app.server.services.MessageDao.Message;
+import com.github.susom.app.server.services.MessageSearchIndex;
+import com.github.susom.app.server.services.MessageWriter;
 import com.github.susom.database.Config;
-import com.github.susom.database.DatabaseProviderVertx.Builder;
+import com.github.susom.database.Database;
 import com.github.susom.vertx.base.AuthenticatedUser;
+import com.github.susom.vertx.base.BadRequestException;
 import com.github.susom.vertx.base.Security;
 import com.github.susom.vertx.base.StrictResourceHandler;
 import com.github.susom.vertx.base.Valid;
 import com.github.susom.vertx.base.VertxBase;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
 import io.vertx.core.Vertx;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.ext.web.Router;
 import io.vertx.ext.web.RoutingContext;
+import io.vertx.ext.web.handler.BodyHandler;
 import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -39,16 +57,31 @@
  */
 public class SecureApp {
   private static final Logger log = LoggerFactory.getLogger(SecureApp.class);
-  private final Builder dbb;
+  private static final int MAX_MESSAGE_LENGTH = 4000;
+  private static final long MAX_BODY_BYTES = 64 * 1024;
+  private static final int MAX_QUERY_LENGTH = 1000;
+  private final ReplicaRouter reads;
   private final SecureRandom random;
   private final Security security;
   private final Config config;
+  private final Metrics metrics;
+  private final MessageCache messageCache;
+  private final MessageWriter messageWriter;
+  private final MessageEvents messageEvents;
+  private final SearchIndexer searchIndexer;
+  private final StaticAssets staticAssets;
 
-  public SecureApp(Builder dbb, SecureRandom random, Security security, Config config) {
-    this.dbb = dbb;
-    this.random = random;
+  public SecureApp(AppServices services, Security security) {
+    this.reads = services.replicaRouter();
+    this.random = services.random();
     this.security = security;
-    this.config = config;
+    this.config = services.config();
+    this.metrics = services.metrics();
+    this.messageCache = services.messageCache();
+    this.messageWriter = services.messageWriter();
+    this.messageEvents = services.messageEvents();
+    this.searchIndexer = services.searchIndexer();
+    this.staticAssets = services.staticAssets();
   }
 
   public void configureRouter(Vertx vertx, Router router) {
@@ -56,19 +89,36 @@ public void configureRouter(Vertx vertx, Router router) {
 
     // Add your own APIs here with appropriate authorization checks
     // To keep things clean, use a method reference and implement the API in a method below.
-    router.get("/api/v1/secret").handler(this::secretApi).failureHandler(VertxBase::jsonApiFail);
+    // Wrapping with metrics.timed() records latency and status codes per API.
+    router.get("/api/v1/secret").handler(metrics.timed("secret", this::secretApi))
+        .failureHandler(VertxBase::jsonApiFail);
+    router.get("/api/v1/secrets").handler(metrics.timed("secrets", this::secretsApi))
+        .failureHandler(VertxBase::jsonApiFail);
+    router.get("/api/v1/messages").handler(metrics.timed("messages", this::messagesApi))
+        .failureHandler(VertxBase::jsonApiFail);
+    router.post("/api/v1/messages")
+        .handler(BodyHandler.create().setHandleFileUploads(false).setBodyLimit(MAX_BODY_BYTES))
+        .handler(metrics.timed("add_message", this::addMessageApi)).failureHandler(VertxBase::jsonApiFail);
+
+    router.get("/api/v1/messages/search").handler(metrics.timed("search", this::searchApi))
+        .failureHandler(VertxBase::jsonApiFail);
+
+    // Server-sent events announcing new messages, so clients need not poll
+    router.get("/api/v1/messages/events").handler(metrics.streaming("events", messageEvents.streamHandler(vertx)))
+        .failureHandler(VertxBase::jsonApiFail);
 
     // Test page to see information about the authenticated user
-    router.get("/me").handler(this::me).failureHandler(VertxBase::jsonApiFail);
+    router.get("/me").handler(metrics.timed("me", this::me)).failureHandler(VertxBase::jsonApiFail);
 
     // Static content coming from the Java classpath. This is last in this
     // method because the routing path overlaps with the others above, and
-    // we want them to take precedence.
-    router.get("/*").handler(new StrictResourceHandler(vertx)
+    // we want them to take precedence. The static assets wrapper adds
+    // ETag and Cache-Control headers (keep the directories consistent).
+    router.get("/*").handler(metrics.timed("static", staticAssets.handler(new StrictResourceHandler(vertx)
         .addDir("static/secure-app")
         .addDir("static/assets", "**/*", "assets")
         .rootIndex("index.nocache.html")
-    );
+    )));
   }
 
   // Place API handlers into separate methods to keep the above routing
@@ -88,20 +138,232 @@ private void secretApi(RoutingContext rc) {
     // by the VertxBase::jsonApiFail above to send a 400 status code.
     Long messageId = Valid.nonnegativeLongOpt(rc.request().getParam("id"), "Expecting a number for id");
 
+    // Messages rarely change, so try to answer from the cache right here on
+    // the event loop without tying up a worker thread or database connection.
+    // The cached version also lets us answer conditional requests with 304.
+    if (messageId != null) {
+      MessageCache.Lookup cached = messageCache.get(messageId);
+      if (cached != null) {
+        sendSecret(rc, cached.message());
+        return;
+      }
+    }
+
     // Database transactions are explicit. Here we issue a database query that
     // will run on a worker thread (asynchronously) and provide the result to
-    // a generic helper that will send it to the client (and do some error
-    // handling if necessary).
-    dbb.transactAsync(dbs -> {
-      Message message = new MessageDao(dbs).findMessageById(messageId);
-      String secret;
-      if (message == null) {
-        secret = "The server says some secret stuff!";
-      } else {
-        secret = "The server says: " + message.message;
+    // a helper that will send it to the client (errors are handled by a
+    // generic helper). This only reads, so it may run on a replica; one that
+    // has not caught up may not have a new message yet, so check the primary
+    // before saying it does not exist.
+    // We already know it is not in the cache
+    Map<Long, MessageCache.Lookup> checked = messageId == null ? Collections.emptyMap()
+        : Collections.singletonMap(messageId, null);
+    readOnly(rc, "secret", (dbs, replica) -> messageDao(dbs, replica, checked).findMessageById(messageId),
+        message -> messageId != null && message == null, result -> {
+          if (result.succeeded()) {
+            sendSecret(rc, result.result());
+          } else {
+            Handler<AsyncResult<JsonObject>> sender = VertxBase.sendJson(rc);
+            sender.handle(Future.failedFuture(result.cause()));
+          }
+        });
+  }
+
+  private void sendSecret(RoutingContext rc, Message message) {
+    // Answers from the cache and the database both come through here
+    log.info("Look at me sharing a secret (this log entry should show the authenticated user)");
+
+    // Only messages that exist get a validator, since a missing one may appear later
+    if (message != null) {
+      String etag = '"' + message.version() + '"';
+      if (StaticAssets.etagMatches(rc.request().getHeader("If-None-Match"), etag)) {
+        rc.response().setStatusCode(304).putHeader("ETag", etag).end();
+        return;
+      }
+      rc.response().putHeader("ETag", etag);
+      rc.addHeadersEndHandler(v -> rc.response().putHeader("Cache-Control", "private, no-cache"));
+    }
+    Handler<AsyncResult<JsonObject>> sender = VertxBase.sendJson(rc);
+    sender.handle(Future.succeededFuture(secretJson(message)));
+  }
+
+  private void secretsApi(RoutingContext rc) {
+    // Clients provide many ids like ?id=1&id=2 and we look them all up
+    // together rather than making them call the secret API repeatedly
+    List<String> params = rc.request().params().getAll("id");
+    int maxIds = config.getInteger("secrets.max.ids", 1000);
+    if (params.size() > maxIds) {
+      throw new BadRequestException("No more than " + maxIds + " ids may be requested at once");
+    }
+    List<Long> messageIds = new ArrayList<>(params.size());
+    for (String param : params) {
+      Long messageId = Valid.nonnegativeLongOpt(param, "Expecting a number for id");
+      if (messageId == null) {
+        throw new BadRequestException("Expecting a number for id");
+      }
+      messageIds.add(messageId);
+    }
+
+    // Answer from the cache if we can, otherwise a single transaction will
+    // fetch the rest (reusing what we found here, so nothing is counted twice)
+    Map<Long, MessageCache.Lookup> checked = new HashMap<>();
+    List<Message> cachedMessages = new ArrayList<>(messageIds.size());
+    for (Long messageId : messageIds) {
+      MessageCache.Lookup cached = checked.containsKey(messageId) ? checked.get(messageId)
+          : messageCache.get(messageId);
+      checked.put(messageId, cached);
+      if (cached != null) {
+        cachedMessages.add(cached.message());
+      }
+    }
+    Handler<AsyncResult<JsonObject>> sender = VertxBase.sendJson(rc);
+    if (cachedMessages.size() == messageIds.size()) {
+      sender.handle(Future.succeededFuture(secretsJson(messageIds, cachedMessages)));
+      return;
+    }
+
+    readOnly(rc, "secrets", (dbs, replica) -> messageDao(dbs, replica, checked).findMessagesByIds(messageIds),
+        messages -> messages.contains(null), result -> {
+          if (result.succeeded()) {
+            sender.handle(Future.succeededFuture(secretsJson(messageIds, result.result())));
+          } else {
+            sender.handle(Future.failedFuture(result.cause()));
+          }
+        });
+  }
+
+  private void messagesApi(RoutingContext rc) {
+    // Clients page through with ?after=<last id seen>, and may stop early with ?limit=
+    Long afterId = Valid.nonnegativeLongOpt(rc.request().getParam("after"), "Expecting a number for after");
+    Long limit = Valid.nonnegativeLongOpt(rc.request().getParam("limit"), "Expecting a number for limit");
+
+    new MessageExport(reads, timeoutMillis("messages"), rc, config.getInteger("messages.page.size", 1000), limit)
+        .start(afterId == null ? 0 : afterId);
+  }
+
+  private void searchApi(RoutingContext rc) {
+    String query = rc.request().getParam("q");
+    if (query == null || query.trim().isEmpty() || query.length() > MAX_QUERY_LENGTH) {
+      throw new BadRequestException("Expecting a query of up to " + MAX_QUERY_LENGTH + " characters in q");
+    }
+    Long offset = Valid.nonnegativeLongOpt(rc.request().getParam("offset"), "Expecting a number for offset");
+    Long limit = Valid.nonnegativeLongOpt(rc.request().getParam("limit"), "Expecting a number for limit");
+    int pageOffset = offset == null ? 0 : (int) Math.min(offset, Integer.MAX_VALUE);
+    int pageLimit = limit == null ? 20 : (int) Math.min(limit, config.getInteger("search.max.limit", 100));
+    int maxOffset = config.getInteger("search.max.offset", 10000);
+    if (pageOffset > maxOffset) {
+      throw new BadRequestException("The offset may not be greater than " + maxOffset);
+    }
+
+    if (!searchIndexer.isReady()) {
+      rc.response().setStatusCode(503).putHeader("Retry-After", "10").putHeader("content-type", "application/json")
+          .end(new JsonObject().put("error", "The search index is still being built").encode());
+      return;
+    }
+
+    // Searching is CPU work rather than I/O, but a broad query may still take
+    // long enough that it should not hold up the event loop
+    MessageSearchIndex index = searchIndexer.index();
+    Handler<AsyncResult<JsonObject>> sender = VertxBase.sendJson(rc);
+    rc.vertx().<JsonObject>executeBlocking(future -> {
+      MessageSearchIndex.Results results = index.search(query, pageOffset, pageLimit);
+      JsonArray hits = new JsonArray();
+      for (MessageSearchIndex.Hit hit : results.hits) {
+        hits.add(new JsonObject().put("id", hit.messageId).put("score", hit.score));
+      }
+      future.complete(new JsonObject().put("total", results.total).put("offset", pageOffset)
+          .put("limit", pageLimit).put("results", hits));
+    }, false, sender);
+  }
+
+  private void addMessageApi(RoutingContext rc) {
+    String text;
+    try {
+      JsonObject body = rc.getBodyAsJson();
+      text = body == null ? null : body.getString("message");
+    } catch (DecodeException | ClassCastException e) {
+      throw new BadRequestException("Expecting a JSON object with a message");
+    }
+    if (text == null || text.isEmpty()) {
+      throw new BadRequestException("Expecting a JSON object with a message");
+    }
+    if (text.length() > MAX_MESSAGE_LENGTH) {
+      throw new BadRequestException("Message may not be longer than " + MAX_MESSAGE_LENGTH + " characters");
+    }
+
+    // The writer groups messages from many requests into one transaction. We
+    // only respond (with the new id) after that transaction has committed,
+    // so a 201 means the message is durable. The future completes on the
+    // writer thread, so hop back to the event loop before responding.
+    Context context = rc.vertx().getOrCreateContext();
+    messageWriter.add(text).whenComplete((messageId, error) -> context.runOnContext(v -> {
+      if (rc.response().closed()) {
+        return;
+      }
+      if (error != null) {
+        if (!DbExecutor.sendUnavailable(rc, error)) {
+          rc.fail(error);
+        }
+        return;
+      }
+      rc.response().setStatusCode(201).putHeader("content-type", "application/json")
+          .end(new JsonObject().put("id", messageId).encode());
+    }));
+  }
+
+  /**
+   * Run a read-only database transaction for an API, on a replica database
+   * if one is available. If the database is overloaded or does not respond
+   * in time the client gets an error status immediately, otherwise the
+   * result is passed along to the handler.
+   *
+   * @param api name used to look up an API-specific timeout
+   * @param confirm true for results from a replica that should be checked on the primary
+   */
+  private <T> void readOnly(RoutingContext rc, String api, ReplicaRouter.ReadCode<T> code, Predicate<T> confirm,
+                            Handler<AsyncResult<T>> handler) {
+    reads.transact(rc, timeoutMillis(api), code, confirm, result -> {
+      if (result.failed() && DbExecutor.sendUnavailable(rc, result.cause())) {
+        return;
       }
-      log.info("Look at me sharing a secret (this log entry should show the authenticated user)");
-      return new JsonObject().put("message", secret);
-    }, VertxBase.sendJson(rc));
+      handler.handle(result);
+    });
+  }
+
+  /**
+   * A replica may be behind, so anything missing there is not cached as missing.
+   *
+   * @param checked cache lookups already made for this request
+   */
+  private MessageDao messageDao(Supplier<Database> dbs, boolean replica, Map<Long, MessageCache.Lookup> checked) {
+    MessageDao messageDao = new MessageDao(dbs, messageCache).withCacheChecked(checked);
+    return replica ? messageDao.withoutCachingMissing() : messageDao;
+  }
+
+  private long timeoutMillis(String api) {
+    return config.getLong("database.timeout.millis." + api, config.getLong("database.timeout.millis", 5000));
+  }
+
+  private JsonObject secretsJson(List<Long> messageIds, List<Message> messages) {
+    JsonArray results = new JsonArray();
+    for (int i = 0; i < messageIds.size(); i++) {
+      Message message = messages.get(i);
+      JsonObject result = new JsonObject().put("id", messageIds.get(i)).put("found", message != null);
+      if (message != null) {
+        result.put("message", message.message);
+      }
+      results.add(result);
+    }
+    return new JsonObject().put("messages", results);
+  }
+
+  static JsonObject secretJson(Message message) {
+    String secret;
+    if (message == null) {
+      secret = "The server says some secret stuff!";
+    } else {
+      secret = "The server says: " + message.message;
+    }
+    return new JsonObject().put("message", secret);
   }
 }
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2026 The Board of Trustees of The Leland Stanford Junior University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.susom.app.server.container;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Record how long each step of starting the application takes, so slow
+ * startups can be diagnosed from the log. Steps may run concurrently.
+ */
+class StartupTimer {
+  private final long start = System.nanoTime();
+  private final Map<String, Long> steps = new LinkedHashMap<>();
+
+  /**
+   * Run a step and record how long it took. Checked exceptions from the step
+   * are rethrown wrapped in a CompletionException, so steps may be run inside
+   * a CompletableFuture and the original cause is reported by join().
+   */
+  <T> T time(String step, Callable<T> code) {
+    long started = System.nanoTime();
+    try {
+      return code.call();
+    } catch (RuntimeException | Error e) {
+      throw e;
+    } catch (Exception e) {
+      throw new CompletionException(e);
+    } finally {
+      record(step, System.nanoTime() - started);
+    }
+  }
+
+  void run(String step, Step code) {
+    time(step, () -> {
+      code.run();
+      return null;
+    });
+  }
+
+  /**
+   * @return a summary of the time since the JVM started, the time since this
+   *         timer was created, and the time taken by each step
+   */
+  synchronized String summary() {
+    StringBuilder summary = new StringBuilder();
+    summary.append(ManagementFactory.getRuntimeMXBean().getUptime()).append("ms since the JVM started (")
+        .append(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).append("ms in main)");
+    String separator = ": ";
+    for (Map.Entry<String, Long> step : steps.entrySet()) {
+      summary.append(separator).append(step.getKey()).append(' ')
+          .append(TimeUnit.NANOSECONDS.toMillis(step.getValue())).append("ms");
+      separator = ", ";
+    }
+    return summary.toString();
+  }
+
+  /**
+   * Record a step that was timed elsewhere, such as one completing asynchronously.
+   */
+  synchronized void record(String step, long nanos) {
+    steps.put(step, nanos);
+  }
+
+  /**
+   * A startup step that does not produce a value.
+   */
+  @FunctionalInterface
+  interface Step {
+    void run() throws Exception;
+  }
+}
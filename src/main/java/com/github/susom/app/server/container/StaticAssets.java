@@ -0,0 +1,434 @@
+/*
+ * Copyright 2026 The Board of Trustees of The Leland Stanford Junior University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.susom.app.server.container;
+
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.ext.web.RoutingContext;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.JarURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Index of the static resources served from the classpath, computed once at
+ * startup. Each resource gets an entity tag derived from a hash of its
+ * content, so browsers can revalidate with If-None-Match and receive a 304
+ * without the content being sent again. Resources whose names carry a hash
+ * of their content (like "app.0123abcd.css", at least eight hex digits
+ * before the extension) are marked as immutable, since changed content will
+ * have a different name. Everything else must be revalidated on each use.
+ *
+ * <p>The gzip and brotli variants we send have their own strong tags (the
+ * hash with an encoding suffix), since their bytes differ from the original.
+ * The original content gets a weak tag, because the server may still
+ * compress it on the fly. Any of the tags is accepted in If-None-Match, and
+ * the 304 carries the tag of the variant the client would have received.</p>
+ *
+ * <p>Optionally the content itself is kept in memory and served directly
+ * from pre-built buffers, along with a gzip version compressed once at
+ * startup and a brotli version if the build produced one (a ".br" file next
+ * to the original). The best variant is chosen using the Accept-Encoding
+ * header, so static content is not re-read from the jar. The compressed
+ * files themselves cannot be requested directly.</p>
+ *
+ * <p>The directory layout mirrors the {@code StrictResourceHandler}
+ * configuration in {@link SecureApp}.</p>
+ */
+public class StaticAssets {
+  private static final Logger log = LoggerFactory.getLogger(StaticAssets.class);
+  private static final String ASSETS_PREFIX = "assets/";
+  private static final Pattern FINGERPRINTED = Pattern.compile(".*[.-][0-9a-fA-F]{8,}\\.[^./]+");
+  private static final Map<String, String> CONTENT_TYPES = new HashMap<>();
+  static {
+    CONTENT_TYPES.put("html", "text/html");
+    CONTENT_TYPES.put("css", "text/css");
+    CONTENT_TYPES.put("js", "application/javascript");
+    CONTENT_TYPES.put("json", "application/json");
+    CONTENT_TYPES.put("map", "application/json");
+    CONTENT_TYPES.put("txt", "text/plain");
+    CONTENT_TYPES.put("xml", "application/xml");
+    CONTENT_TYPES.put("svg", "image/svg+xml");
+    CONTENT_TYPES.put("png", "image/png");
+    CONTENT_TYPES.put("jpg", "image/jpeg");
+    CONTENT_TYPES.put("gif", "image/gif");
+    CONTENT_TYPES.put("webp", "image/webp");
+    CONTENT_TYPES.put("ico", "image/x-icon");
+    CONTENT_TYPES.put("woff", "font/woff");
+    CONTENT_TYPES.put("woff2", "font/woff2");
+  }
+  private final Map<String, Asset> assets;
+  private final Set<String> variants;
+  private final String rootIndex;
+
+  /**
+   * @param inMemory true to serve content from memory (with pre-compressed
+   *                 variants), false to only add validation headers and let
+   *                 the wrapped handler serve the content
+   */
+  public StaticAssets(String rootIndex, boolean inMemory) {
+    this.rootIndex = rootIndex;
+    Map<String, byte[]> found = new HashMap<>();
+    scan("static/secure-app", "", found);
+    scan("static/assets", ASSETS_PREFIX, found);
+
+    Map<String, Asset> indexed = new HashMap<>();
+    Set<String> compressedPaths = new HashSet<>();
+    long bytes = 0;
+    for (Map.Entry<String, byte[]> entry : found.entrySet()) {
+      String path = entry.getKey();
+      if (isVariant(path, found.keySet())) {
+        // Pre-compressed variant of another resource
+        compressedPaths.add(path);
+        continue;
+      }
+      Asset asset = new Asset(path, entry.getValue(), inMemory, found.get(path + ".gz"),
+          found.get(path + ".br"));
+      indexed.put(path, asset);
+      bytes += asset.memoryBytes();
+    }
+    assets = Collections.unmodifiableMap(indexed);
+    variants = Collections.unmodifiableSet(compressedPaths);
+    if (inMemory) {
+      log.info("Loaded {} static resources into memory ({} bytes including compressed variants)", assets.size(),
+          bytes);
+    } else {
+      log.debug("Indexed {} static resources", assets.size());
+    }
+  }
+
+  /**
+   * Wrap the handler that actually serves the static content, answering
+   * conditional requests directly and adding validation and caching headers
+   * to everything else.
+   */
+  public Handler<RoutingContext> handler(Handler<RoutingContext> delegate) {
+    return rc -> {
+      String path = relativePath(rc);
+      Asset asset = assets.get(path);
+      if (asset == null) {
+        if (variants.contains(path)) {
+          // Only served through content negotiation on the original path
+          rc.response().setStatusCode(404).end();
+        } else {
+          delegate.handle(rc);
+        }
+        return;
+      }
+
+      HttpServerResponse response = rc.response();
+      String coding = asset.identity == null ? null : asset.coding(rc.request().getHeader("Accept-Encoding"));
+      if (asset.matches(rc.request().getHeader("If-None-Match"))) {
+        cacheHeaders(response, asset, coding);
+        if (asset.identity != null) {
+          response.putHeader("Vary", "Accept-Encoding");
+        }
+        response.setStatusCode(304).end();
+        return;
+      }
+      if (asset.identity != null) {
+        send(rc, asset, coding);
+        return;
+      }
+      rc.addHeadersEndHandler(v -> {
+        if (response.getStatusCode() == 200) {
+          cacheHeaders(response, asset, null);
+        }
+      });
+      delegate.handle(rc);
+    };
+  }
+
+  private void send(RoutingContext rc, Asset asset, String coding) {
+    HttpServerResponse response = rc.response();
+    cacheHeaders(response, asset, coding);
+    response.putHeader("Content-Type", asset.contentType);
+    response.putHeader("X-Content-Type-Options", "nosniff");
+    response.putHeader("Vary", "Accept-Encoding");
+
+    // Vert.x leaves responses that already have a Content-Encoding alone
+    Buffer body;
+    if ("br".equals(coding)) {
+      response.putHeader("Content-Encoding", "br");
+      body = asset.brotli;
+    } else if ("gzip".equals(coding)) {
+      response.putHeader("Content-Encoding", "gzip");
+      body = asset.gzip;
+    } else {
+      body = asset.identity;
+    }
+    response.end(body);
+  }
+
+  /**
+   * Check whether an Accept-Encoding header value allows the provided coding
+   * (ignoring preference weights other than q=0, which means "not acceptable").
+   */
+  static boolean accepts(String acceptEncoding, String coding) {
+    if (acceptEncoding == null) {
+      return false;
+    }
+    for (String candidate : acceptEncoding.split(",")) {
+      String[] parts = candidate.trim().split(";");
+      if (parts[0].trim().equalsIgnoreCase(coding)) {
+        for (int i = 1; i < parts.length; i++) {
+          String param = parts[i].trim().replace(" ", "");
+          if (param.startsWith("q=") && param.substring(2).matches("0(\\.0*)?")) {
+            return false;
+          }
+        }
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Check whether an If-None-Match header value matches the provided entity
+   * tag. This uses weak comparison, as required for If-None-Match, so a
+   * W/ prefix on either tag is ignored.
+   */
+  public static boolean etagMatches(String ifNoneMatch, String etag) {
+    if (ifNoneMatch == null) {
+      return false;
+    }
+    String opaque = etag.startsWith("W/") ? etag.substring(2) : etag;
+    for (String candidate : ifNoneMatch.split(",")) {
+      candidate = candidate.trim();
+      if (candidate.startsWith("W/")) {
+        candidate = candidate.substring(2);
+      }
+      if (candidate.equals("*") || candidate.equals(opaque)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private String relativePath(RoutingContext rc) {
+    String path = rc.normalisedPath();
+    String mountPoint = rc.mountPoint();
+    if (mountPoint != null && path.startsWith(mountPoint)) {
+      path = path.substring(mountPoint.length());
+    }
+    while (path.startsWith("/")) {
+      path = path.substring(1);
+    }
+    return path.isEmpty() ? rootIndex : path;
+  }
+
+  private static boolean isVariant(String path, Set<String> paths) {
+    return (path.endsWith(".br") || path.endsWith(".gz")) && paths.contains(path.substring(0, path.length() - 3));
+  }
+
+  private static String contentType(String path) {
+    String mimeType = CONTENT_TYPES.get(path.substring(path.lastIndexOf('.') + 1).toLowerCase(Locale.ROOT));
+    if (mimeType == null) {
+      mimeType = URLConnection.guessContentTypeFromName(path);
+    }
+    if (mimeType == null) {
+      return "application/octet-stream";
+    }
+    if (mimeType.startsWith("text/") || mimeType.equals("application/javascript")) {
+      mimeType += ";charset=UTF-8";
+    }
+    return mimeType;
+  }
+
+  private void cacheHeaders(HttpServerResponse response, Asset asset, String coding) {
+    response.putHeader("ETag", asset.etag(coding));
+    if (asset.immutable) {
+      response.putHeader("Cache-Control", "public, max-age=31536000, immutable");
+    } else {
+      response.putHeader("Cache-Control", "no-cache");
+    }
+  }
+
+  private void scan(String dir, String pathPrefix, Map<String, byte[]> found) {
+    URL url = StaticAssets.class.getClassLoader().getResource(dir);
+    if (url == null) {
+      return;
+    }
+    try {
+      if ("file".equals(url.getProtocol())) {
+        Path base = Paths.get(url.toURI());
+        try (Stream<Path> files = Files.walk(base)) {
+          files.filter(Files::isRegularFile).forEach(file -> {
+            String relative = base.relativize(file).toString().replace(file.getFileSystem().getSeparator(), "/");
+            add(dir + '/' + relative, pathPrefix + relative, found);
+          });
+        }
+      } else if ("jar".equals(url.getProtocol())) {
+        JarURLConnection connection = (JarURLConnection) url.openConnection();
+        connection.setUseCaches(false);
+        try (JarFile jar = connection.getJarFile()) {
+          Enumeration<JarEntry> entries = jar.entries();
+          while (entries.hasMoreElements()) {
+            JarEntry entry = entries.nextElement();
+            if (!entry.isDirectory() && entry.getName().startsWith(dir + '/')) {
+              add(entry.getName(), pathPrefix + entry.getName().substring(dir.length() + 1), found);
+            }
+          }
+        }
+      } else {
+        log.warn("Unable to index static resources from " + url);
+      }
+    } catch (Exception e) {
+      // Not fatal, we just won't be able to offer validation for these resources
+      log.warn("Unable to index static resources from " + url, e);
+    }
+  }
+
+  private void add(String resource, String path, Map<String, byte[]> found) {
+    byte[] content = read(resource);
+    if (content != null) {
+      found.put(path, content);
+    }
+  }
+
+  private static byte[] read(String resource) {
+    try (InputStream in = StaticAssets.class.getClassLoader().getResourceAsStream(resource)) {
+      if (in == null) {
+        return null;
+      }
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[8192];
+      int count;
+      while ((count = in.read(buffer)) != -1) {
+        out.write(buffer, 0, count);
+      }
+      return out.toByteArray();
+    } catch (IOException e) {
+      log.warn("Unable to read static resource " + resource, e);
+      return null;
+    }
+  }
+
+  static class Asset {
+    final String path;
+    final String hash;
+    final String contentType;
+    final boolean immutable;
+    final Buffer identity;
+    final Buffer gzip;
+    final Buffer brotli;
+
+    /**
+     * @param gzipped pre-built gzip content, or null to compress it here
+     * @param brotli pre-built brotli content, or null if not available
+     */
+    Asset(String path, byte[] content, boolean inMemory, byte[] gzipped, byte[] brotli) {
+      this.path = path;
+      this.hash = hash(content);
+      this.contentType = contentType(path);
+      this.immutable = FINGERPRINTED.matcher(path).matches();
+
+      if (inMemory) {
+        identity = Buffer.buffer(content);
+        if (gzipped == null) {
+          gzipped = gzip(content);
+        }
+        // Only worth sending compressed variants if they are actually smaller
+        this.gzip = gzipped.length < content.length ? Buffer.buffer(gzipped) : null;
+        this.brotli = brotli != null && brotli.length < content.length ? Buffer.buffer(brotli) : null;
+      } else {
+        identity = null;
+        this.gzip = null;
+        this.brotli = null;
+      }
+    }
+
+    /**
+     * @return the encoding of the best variant we have in memory that the
+     *         client accepts ("br" or "gzip"), or null for the original content
+     */
+    String coding(String acceptEncoding) {
+      if (brotli != null && accepts(acceptEncoding, "br")) {
+        return "br";
+      }
+      if (gzip != null && accepts(acceptEncoding, "gzip")) {
+        return "gzip";
+      }
+      return null;
+    }
+
+    /**
+     * @param coding as returned by {@link #coding(String)}
+     */
+    String etag(String coding) {
+      return coding == null ? "W/\"" + hash + '"' : '"' + hash + '-' + coding + '"';
+    }
+
+    /**
+     * Check an If-None-Match header against the tags of all the variants.
+     */
+    boolean matches(String ifNoneMatch) {
+      return etagMatches(ifNoneMatch, etag(null)) || etagMatches(ifNoneMatch, etag("gzip"))
+          || etagMatches(ifNoneMatch, etag("br"));
+    }
+
+    long memoryBytes() {
+      return (identity == null ? 0 : identity.length()) + (gzip == null ? 0 : gzip.length())
+          + (brotli == null ? 0 : brotli.length());
+    }
+
+    private static byte[] gzip(byte[] content) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      try (GZIPOutputStream gzip = new GZIPOutputStream(out) {
+        {
+          def.setLevel(Deflater.BEST_COMPRESSION);
+        }
+      }) {
+        gzip.write(content);
+      } catch (IOException e) {
+        throw new IllegalStateException("Unable to compress static content", e);
+      }
+      return out.toByteArray();
+    }
+
+    private static String hash(byte[] content) {
+      try {
+        byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(digest).substring(0, 22);
+      } catch (Exception e) {
+        throw new IllegalStateException("Unable to hash static content", e);
+      }
+    }
+  }
+}
@@ -19,13 +19,15 @@
 import com.github.susom.database.Database;
 import com.github.susom.database.DatabaseProvider;
 import com.github.susom.database.Flavor;
-import com.github.susom.database.Schema;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 /**
- * Utility to create a database schema for this application.
+ * Utility to create a database schema for this application. The schema
+ * itself is defined by {@link SchemaMigrations}, so a new database ends up
+ * the same as an upgraded one.
  */
 public class CreateSchema {
   public static void main(String[] args) {
@@ -82,20 +84,12 @@ public static void run(Set<String> argSet, Config config) throws Exception {
       });
     }
 
-    DatabaseProvider.fromDriverManager(databaseUrl, databaseUser, databasePassword).transact(dbp -> {
-      // @formatter:off
-      new Schema()
-        .addTable("app_message")
-          .withComment("Store the various messages we will return.")
-          .withStandardPk()
-          .trackUpdateTime()
-          .addColumn("message").asString(4000).schema()
-        .addSequence("app_pk_seq").start(1000).schema().execute(dbp);
-      // @formatter:on
+    // Creating the schema is just applying all the migrations to an empty database
+    DatabaseProvider.Builder builder = DatabaseProvider.fromDriverManager(databaseUrl, databaseUser, databasePassword);
+    List<Integer> applied = new SchemaMigrations(builder).withThrottle(10000, 0).migrate(true);
 
-      MessageDao messageDao = new MessageDao(dbp);
-      messageDao.addMessage("Hello world!");
-      messageDao.addMessage("Hejsan du!");
-    });
+    if (applied.contains(1)) {
+      builder.transact(dbp -> new MessageDao(dbp).addMessages(Arrays.asList("Hello world!", "Hejsan du!")));
+    }
   }
 }
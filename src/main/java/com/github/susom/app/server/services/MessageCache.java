@@ -0,0 +1,212 @@
+/*
+ * Copyright 2026 The Board of Trustees of The Leland Stanford Junior University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.susom.app.server.services;
+
+import com.github.susom.app.server.services.MessageDao.Message;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Bounded, in-memory cache of messages keyed by id. Entries are evicted
+ * when the cache grows past its maximum size (least recently used first)
+ * or when they have been around longer than their time-to-live.
+ *
+ * <p>Lookups for ids that do not exist are cached as well (negative
+ * caching), with a separate and usually much shorter time-to-live.
+ * Whoever adds a message must invalidate its id once the transaction has
+ * committed, since it may have been negatively cached by somebody guessing
+ * ids. Invalidating any earlier would let a concurrent reader that cannot
+ * see the new row yet cache it as missing again.</p>
+ *
+ * <p>This class is thread safe. The critical sections are tiny, so it is
+ * fine to call it directly from an event loop thread.</p>
+ */
+public class MessageCache {
+  private final int maxEntries;
+  private final long ttlNanos;
+  private final long negativeTtlNanos;
+  private final LongSupplier nanoTime;
+  private final LinkedHashMap<Long, Entry> entries;
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder loads = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+  private long invalidations;
+
+  public MessageCache(int maxEntries, long ttl, long negativeTtl, TimeUnit unit) {
+    this(maxEntries, ttl, negativeTtl, unit, System::nanoTime);
+  }
+
+  MessageCache(int maxEntries, long ttl, long negativeTtl, TimeUnit unit, LongSupplier nanoTime) {
+    if (maxEntries < 1) {
+      throw new IllegalArgumentException("maxEntries must be at least 1");
+    }
+    this.maxEntries = maxEntries;
+    this.ttlNanos = unit.toNanos(ttl);
+    this.negativeTtlNanos = unit.toNanos(negativeTtl);
+    this.nanoTime = nanoTime;
+    this.entries = new LinkedHashMap<Long, Entry>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+        if (size() > MessageCache.this.maxEntries) {
+          evictions.increment();
+          return true;
+        }
+        return false;
+      }
+    };
+  }
+
+  /**
+   * Look up a message in the cache.
+   *
+   * @return null if we don't know anything about this id (the caller should
+   *         go to the database); otherwise a lookup result, which may indicate
+   *         the message is known not to exist
+   */
+  public Lookup get(long messageId) {
+    long now = nanoTime.getAsLong();
+    synchronized (entries) {
+      Entry entry = entries.get(messageId);
+      if (entry != null) {
+        if (entry.expiresAt - now > 0) {
+          hits.increment();
+          return entry;
+        }
+        entries.remove(messageId);
+        evictions.increment();
+      }
+    }
+    misses.increment();
+    return null;
+  }
+
+  /**
+   * Capture the current invalidation state before reading from the database.
+   * Pass the result to {@link #put(long, Message, long)} so a value read
+   * before a concurrent invalidation will not be cached.
+   */
+  public long stamp() {
+    synchronized (entries) {
+      return invalidations;
+    }
+  }
+
+  /**
+   * Remember the result of a database lookup. Each call counts as a load,
+   * which unlike {@link #missCount()} is not inflated by checking the cache
+   * more than once before going to the database.
+   *
+   * @param message the message, or null if it does not exist
+   * @param stamp the value of {@link #stamp()} before the database was read
+   */
+  public void put(long messageId, Message message, long stamp) {
+    loads.increment();
+    long now = nanoTime.getAsLong();
+    synchronized (entries) {
+      if (stamp != invalidations) {
+        return;
+      }
+      entries.put(messageId, new Entry(message, now + (message == null ? negativeTtlNanos : ttlNanos)));
+    }
+  }
+
+  public void invalidate(long messageId) {
+    synchronized (entries) {
+      invalidations++;
+      entries.remove(messageId);
+    }
+  }
+
+  public void invalidateAll() {
+    synchronized (entries) {
+      invalidations++;
+      entries.clear();
+    }
+  }
+
+  /**
+   * Proactively drop expired entries. Expired entries are also removed lazily
+   * as they are accessed, so calling this is optional, but it helps release
+   * memory when the access pattern moves on to different ids.
+   */
+  public void evictExpired() {
+    long now = nanoTime.getAsLong();
+    synchronized (entries) {
+      Iterator<Entry> iterator = entries.values().iterator();
+      while (iterator.hasNext()) {
+        if (iterator.next().expiresAt - now <= 0) {
+          iterator.remove();
+          evictions.increment();
+        }
+      }
+    }
+  }
+
+  public int size() {
+    synchronized (entries) {
+      return entries.size();
+    }
+  }
+
+  public long hitCount() {
+    return hits.sum();
+  }
+
+  public long missCount() {
+    return misses.sum();
+  }
+
+  /**
+   * @return how many database lookups have been provided to {@link #put(long, Message, long)}
+   */
+  public long loadCount() {
+    return loads.sum();
+  }
+
+  public long evictionCount() {
+    return evictions.sum();
+  }
+
+  /**
+   * The result of a cache lookup that found something.
+   */
+  public interface Lookup {
+    /**
+     * @return the cached message, or null if it is known not to exist
+     */
+    Message message();
+  }
+
+  private static class Entry implements Lookup {
+    final Message message;
+    final long expiresAt;
+
+    Entry(Message message, long expiresAt) {
+      this.message = message;
+      this.expiresAt = expiresAt;
+    }
+
+    @Override
+    public Message message() {
+      return message;
+    }
+  }
+}
@@ -16,6 +16,19 @@
 package com.github.susom.app.server.services;
 
 import com.github.susom.database.Database;
+import com.github.susom.database.Flavor;
+import com.github.susom.database.SqlInsert;
+import com.github.susom.database.SqlSelect;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
 import java.util.function.Supplier;
 
 /**
@@ -26,15 +39,137 @@
  * @author garricko
  */
 public class MessageDao {
+  public static final int DEFAULT_BATCH_SIZE = 1000;
+  private static final int[] IN_LIST_SIZES = { 1, 10, 50, 200, 500 };
+  private static final int IN_LIST_CHUNK_SIZE = IN_LIST_SIZES[IN_LIST_SIZES.length - 1];
   private final Supplier<Database> dbs;
+  private final MessageCache cache;
+  private int batchSize = DEFAULT_BATCH_SIZE;
+  private boolean cacheMissing = true;
+  private Map<Long, MessageCache.Lookup> checked = Collections.emptyMap();
 
   public MessageDao(Supplier<Database> dbs) {
+    this(dbs, null);
+  }
+
+  /**
+   * @param cache if not null, lookups will read through this cache; adding
+   *              messages does not touch it, since the new rows are not
+   *              visible to anybody else until the caller commits (invalidate
+   *              the new ids with {@link MessageCache#invalidate(long)} after that)
+   */
+  public MessageDao(Supplier<Database> dbs, MessageCache cache) {
     this.dbs = dbs;
+    this.cache = cache;
+  }
+
+  /**
+   * Control how many rows are sent to the database in each JDBC batch
+   * by {@link #addMessages(Collection)} and {@link #addMessages(Iterator, LongConsumer)}.
+   */
+  public MessageDao withBatchSize(int batchSize) {
+    if (batchSize < 1) {
+      throw new IllegalArgumentException("batchSize must be at least 1");
+    }
+    this.batchSize = batchSize;
+    return this;
+  }
+
+  /**
+   * Do not remember that a message was not found. Use this when reading from
+   * a replica, which may not have received a message the primary already has.
+   */
+  public MessageDao withoutCachingMissing() {
+    cacheMissing = false;
+    return this;
+  }
+
+  /**
+   * Use lookups the caller has already made in the cache, rather than
+   * consulting it again, so each hit or miss is only counted once.
+   *
+   * @param checked the result of {@link MessageCache#get(long)} for each id
+   *                already looked up, including null for those not found
+   */
+  public MessageDao withCacheChecked(Map<Long, MessageCache.Lookup> checked) {
+    this.checked = checked;
+    return this;
   }
 
   public long addMessage(String message) {
-    return dbs.get().toInsert("insert into app_message (app_message_id, message) values (?,?)")
-        .argPkSeq("app_pk_seq").argString(message).insertReturningPkSeq("app_pk_seq");
+    return dbs.get().toInsert("insert into app_message (app_message_id, message, message_length) values (?,?,?)")
+        .argPkSeq("app_pk_seq").argString(message).argInteger(length(message)).insertReturningPkSeq("app_pk_seq");
+  }
+
+  /**
+   * Insert many messages efficiently. Primary keys are allocated from the
+   * sequence a block at a time, and rows are inserted using JDBC batches.
+   *
+   * @return the assigned ids, in the same order as the provided messages
+   */
+  public List<Long> addMessages(Collection<String> messages) {
+    List<Long> ids = new ArrayList<>(messages.size());
+    addMessages(messages.iterator(), ids::add);
+    return ids;
+  }
+
+  /**
+   * Streaming version of {@link #addMessages(Collection)} so arbitrarily
+   * large inputs can be loaded without holding them all in memory.
+   *
+   * @param idConsumer receives the assigned ids in the same order as the
+   *                   messages, after each batch has been inserted
+   */
+  public void addMessages(Iterator<String> messages, LongConsumer idConsumer) {
+    List<String> batch = new ArrayList<>(batchSize);
+    while (messages.hasNext()) {
+      batch.add(messages.next());
+      if (batch.size() == batchSize || !messages.hasNext()) {
+        List<Long> ids = allocateIds(batch.size());
+        SqlInsert insert = dbs.get().toInsert("insert into app_message (app_message_id, message, message_length)"
+            + " values (?,?,?)");
+        for (int i = 0; i < batch.size(); i++) {
+          insert.argLong(ids.get(i)).argString(batch.get(i)).argInteger(length(batch.get(i))).batch();
+        }
+        insert.insertBatch();
+        for (Long id : ids) {
+          idConsumer.accept(id);
+        }
+        batch.clear();
+      }
+    }
+  }
+
+  private static Integer length(String message) {
+    return message == null ? null : message.length();
+  }
+
+  /**
+   * Reserve a block of primary keys from app_pk_seq with a single query.
+   */
+  private List<Long> allocateIds(int count) {
+    Database db = dbs.get();
+    String sql;
+    if (db.flavor() == Flavor.postgresql) {
+      sql = "select nextval('app_pk_seq') from generate_series(1,?)";
+    } else if (db.flavor() == Flavor.oracle) {
+      sql = "select app_pk_seq.nextval from dual connect by level <= ?";
+    } else if (db.flavor() == Flavor.hsqldb) {
+      sql = "select next value for app_pk_seq from unnest(sequence_array(1, cast(? as integer), 1))";
+    } else {
+      // No multi-row trick for this database, so fall back to one at a time
+      List<Long> ids = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) {
+        ids.add(db.nextSequenceValue("app_pk_seq"));
+      }
+      return ids;
+    }
+
+    List<Long> ids = db.toSelect(sql).argInteger(count).queryLongs();
+    if (ids.size() != count) {
+      throw new IllegalStateException("Expected " + count + " values from app_pk_seq but got " + ids.size());
+    }
+    return ids;
   }
 
   public Message findMessageById(Long messageId) {
@@ -42,11 +177,139 @@ public Message findMessageById(Long messageId) {
       return null;
     }
 
-    return dbs.get().toSelect("select message from app_message where app_message_id=?")
+    if (cache == null) {
+      return queryMessageById(messageId);
+    }
+
+    MessageCache.Lookup cached = cached(messageId);
+    if (cached != null) {
+      return cached.message();
+    }
+    long stamp = cache.stamp();
+    Message message = queryMessageById(messageId);
+    if (message != null || cacheMissing) {
+      cache.put(messageId, message, stamp);
+    }
+    return message;
+  }
+
+  /**
+   * Look up many messages within a single transaction. Ids are sent to the
+   * database in chunks using an IN list, so a few queries replace what would
+   * otherwise be one query per id.
+   *
+   * @return a list with one element for each provided id, in the same order;
+   *         the element will be null if no message exists with that id
+   */
+  public List<Message> findMessagesByIds(Collection<Long> messageIds) {
+    List<Message> results = new ArrayList<>(messageIds.size());
+    Map<Long, Message> found = new HashMap<>();
+    List<Long> missing = new ArrayList<>();
+    for (Long messageId : messageIds) {
+      MessageCache.Lookup cached = cache == null || messageId == null ? null : cached(messageId);
+      if (cached != null) {
+        found.put(messageId, cached.message());
+      } else if (messageId != null && !found.containsKey(messageId)) {
+        found.put(messageId, null);
+        missing.add(messageId);
+      }
+    }
+
+    long stamp = cache == null ? 0 : cache.stamp();
+    for (int start = 0; start < missing.size(); start += IN_LIST_CHUNK_SIZE) {
+      List<Long> chunk = missing.subList(start, Math.min(start + IN_LIST_CHUNK_SIZE, missing.size()));
+      for (Message message : queryMessagesByIds(chunk)) {
+        found.put(message.messageId, message);
+      }
+    }
+    if (cache != null) {
+      for (Long messageId : missing) {
+        Message message = found.get(messageId);
+        if (message != null || cacheMissing) {
+          cache.put(messageId, message, stamp);
+        }
+      }
+    }
+
+    for (Long messageId : messageIds) {
+      results.add(messageId == null ? null : found.get(messageId));
+    }
+    return results;
+  }
+
+  private MessageCache.Lookup cached(long messageId) {
+    if (checked.containsKey(messageId)) {
+      return checked.get(messageId);
+    }
+    return cache.get(messageId);
+  }
+
+  private List<Message> queryMessagesByIds(List<Long> messageIds) {
+    // Pad the IN list to one of a few fixed sizes by repeating the last id,
+    // so the database (and statement caches) only ever see a handful of
+    // distinct statements
+    int size = IN_LIST_SIZES[IN_LIST_SIZES.length - 1];
+    for (int candidate : IN_LIST_SIZES) {
+      if (candidate >= messageIds.size()) {
+        size = candidate;
+        break;
+      }
+    }
+
+    StringBuilder sql = new StringBuilder("select app_message_id, message, update_time from app_message"
+        + " where app_message_id in (");
+    for (int i = 0; i < size; i++) {
+      sql.append(i == 0 ? "?" : ",?");
+    }
+    sql.append(')');
+
+    SqlSelect select = dbs.get().toSelect(sql.toString());
+    for (int i = 0; i < size; i++) {
+      select.argLong(messageIds.get(Math.min(i, messageIds.size() - 1)));
+    }
+    return select.queryMany(rs -> {
+      Message result = new Message();
+      result.messageId = rs.getLongOrNull();
+      result.message = rs.getStringOrNull();
+      result.updateTime = rs.getDateOrNull();
+      return result;
+    });
+  }
+
+  /**
+   * Read a page of messages in id order, starting after the provided id.
+   * This is keyset pagination, so each page costs the same no matter how
+   * deep into the table we are, and rows are handed to the consumer as
+   * they are read from the JDBC cursor rather than collected in memory.
+   *
+   * @param afterId only messages with an id greater than this are returned
+   * @param limit the maximum number of messages to read
+   * @return the number of messages provided to the consumer
+   */
+  public int forEachMessageAfter(long afterId, int limit, Consumer<Message> consumer) {
+    return dbs.get().toSelect("select app_message_id, message, update_time from app_message"
+        + " where app_message_id > ? order by app_message_id")
+        .argLong(afterId).fetchSize(limit).withMaxRows(limit).query(rs -> {
+          int count = 0;
+          while (count < limit && rs.next()) {
+            Message message = new Message();
+            message.messageId = rs.getLongOrNull();
+            message.message = rs.getStringOrNull();
+            message.updateTime = rs.getDateOrNull();
+            consumer.accept(message);
+            count++;
+          }
+          return count;
+        });
+  }
+
+  private Message queryMessageById(Long messageId) {
+    return dbs.get().toSelect("select message, update_time from app_message where app_message_id=?")
         .argLong(messageId).queryOneOrNull(rs -> {
           Message result = new Message();
           result.messageId = messageId;
           result.message = rs.getStringOrNull();
+          result.updateTime = rs.getDateOrNull();
           return result;
         });
   }
@@ -54,5 +317,14 @@ public Message findMessageById(Long messageId) {
   public static class Message {
     public Long messageId;
     public String message;
+    public Date updateTime;
+
+    /**
+     * A value that changes whenever this message changes, suitable
+     * for use as an HTTP entity tag.
+     */
+    public String version() {
+      return messageId + "-" + (updateTime == null ? 0 : updateTime.getTime());
+    }
   }
 }
@@ -0,0 +1,331 @@
+/*
+ * Copyright 2026 The Board of Trustees of The Leland Stanford Junior University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.susom.app.server.services;
+
+import com.github.susom.app.server.services.MessageDao.Message;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory inverted index over message text, so we can search without
+ * scanning the table. Text is split into lower-case words (runs of letters
+ * and digits). A search matches messages containing every word in the
+ * query, ranked by BM25 relevance, with newer messages first among equal
+ * scores.
+ *
+ * <p>Each indexed message is given a dense ordinal in the order it was
+ * added, and the postings for each word are append-only arrays of ordinals,
+ * which are therefore always sorted. That keeps the index compact (about
+ * eight bytes per distinct word per message) and lets a search intersect
+ * postings by leapfrogging from the shortest list.</p>
+ *
+ * <p>Messages are never modified once written, so adding a message that is
+ * already indexed does nothing. This class is thread safe; searches run
+ * concurrently with each other and exclude additions.</p>
+ */
+public class MessageSearchIndex {
+  private static final int MAX_TERM_LENGTH = 64;
+  private static final double K1 = 1.2;
+  private static final double B = 0.75;
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  private final Map<String, Postings> postings = new HashMap<>();
+  private final IdSet indexed = new IdSet();
+  private long[] messageIds = new long[1024];
+  private int[] lengths = new int[1024];
+  private int size;
+  private long totalLength;
+
+  /**
+   * Add a message to the index, if it is not already there.
+   */
+  public void add(long messageId, String text) {
+    Map<String, Integer> frequencies = new HashMap<>();
+    int length = 0;
+    for (String term : terms(text)) {
+      frequencies.merge(term, 1, Integer::sum);
+      length++;
+    }
+
+    lock.writeLock().lock();
+    try {
+      if (!indexed.add(messageId)) {
+        return;
+      }
+      if (size == messageIds.length) {
+        messageIds = Arrays.copyOf(messageIds, size * 2);
+        lengths = Arrays.copyOf(lengths, size * 2);
+      }
+      int ordinal = size++;
+      messageIds[ordinal] = messageId;
+      lengths[ordinal] = length;
+      totalLength += length;
+      for (Map.Entry<String, Integer> entry : frequencies.entrySet()) {
+        postings.computeIfAbsent(entry.getKey(), k -> new Postings()).add(ordinal, entry.getValue());
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  public void add(Message message) {
+    add(message.messageId, message.message);
+  }
+
+  /**
+   * Find messages containing all words in the query.
+   *
+   * @param offset number of results to skip, for paging
+   * @param limit maximum number of results to return
+   */
+  public Results search(String query, int offset, int limit) {
+    Set<String> queryTerms = new LinkedHashSet<>(terms(query));
+    if (queryTerms.isEmpty()) {
+      return new Results(0, Collections.emptyList());
+    }
+
+    lock.readLock().lock();
+    try {
+      Postings[] lists = new Postings[queryTerms.size()];
+      double[] idf = new double[lists.length];
+      int i = 0;
+      for (String term : queryTerms) {
+        Postings list = postings.get(term);
+        if (list == null) {
+          return new Results(0, Collections.emptyList());
+        }
+        lists[i++] = list;
+      }
+      Arrays.sort(lists, Comparator.comparingInt(list -> list.size));
+      for (i = 0; i < lists.length; i++) {
+        idf[i] = Math.log(1 + (size - lists[i].size + 0.5) / (lists[i].size + 0.5));
+      }
+      double averageLength = size == 0 ? 1 : (double) totalLength / size;
+
+      // Keep the best offset+limit hits, with the worst of them at the head
+      int keep = offset + limit;
+      PriorityQueue<Hit> best = new PriorityQueue<>(Math.max(1, Math.min(keep, 1024)), Hit.ORDER.reversed());
+      int[] cursors = new int[lists.length];
+      long total = 0;
+      Postings shortest = lists[0];
+      candidates:
+      for (int c = 0; c < shortest.size; c++) {
+        int ordinal = shortest.ordinals[c];
+        for (int l = 1; l < lists.length; l++) {
+          cursors[l] = lists[l].seek(ordinal, cursors[l]);
+          if (cursors[l] >= lists[l].size) {
+            break candidates;
+          }
+          if (lists[l].ordinals[cursors[l]] != ordinal) {
+            continue candidates;
+          }
+        }
+
+        total++;
+        if (keep == 0) {
+          continue;
+        }
+        double norm = K1 * (1 - B + B * lengths[ordinal] / averageLength);
+        double score = 0;
+        for (int l = 0; l < lists.length; l++) {
+          int frequency = l == 0 ? shortest.frequencies[c] : lists[l].frequencies[cursors[l]];
+          score += idf[l] * frequency * (K1 + 1) / (frequency + norm);
+        }
+        Hit hit = new Hit(messageIds[ordinal], score, ordinal);
+        if (best.size() < keep) {
+          best.add(hit);
+        } else if (Hit.ORDER.compare(hit, best.peek()) < 0) {
+          best.poll();
+          best.add(hit);
+        }
+      }
+
+      List<Hit> hits = new ArrayList<>(best);
+      hits.sort(Hit.ORDER);
+      return new Results(total, offset >= hits.size() ? Collections.emptyList() : hits.subList(offset, hits.size()));
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * @return the number of messages in the index
+   */
+  public int size() {
+    lock.readLock().lock();
+    try {
+      return size;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * @return the number of distinct words in the index
+   */
+  public int termCount() {
+    lock.readLock().lock();
+    try {
+      return postings.size();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  static List<String> terms(String text) {
+    List<String> terms = new ArrayList<>();
+    if (text == null) {
+      return terms;
+    }
+    int start = -1;
+    for (int i = 0; i <= text.length(); i++) {
+      boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+      if (wordChar && start < 0) {
+        start = i;
+      } else if (!wordChar && start >= 0) {
+        if (i - start <= MAX_TERM_LENGTH) {
+          terms.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+        }
+        start = -1;
+      }
+    }
+    return terms;
+  }
+
+  /**
+   * The results of a search.
+   */
+  public static class Results {
+    /** How many messages matched in total */
+    public final long total;
+    /** The requested page of matches, best first */
+    public final List<Hit> hits;
+
+    Results(long total, List<Hit> hits) {
+      this.total = total;
+      this.hits = hits;
+    }
+  }
+
+  /**
+   * One message that matched a search.
+   */
+  public static class Hit {
+    static final Comparator<Hit> ORDER = Comparator.comparingDouble((Hit hit) -> hit.score).reversed()
+        .thenComparing(Comparator.comparingInt((Hit hit) -> hit.ordinal).reversed());
+    public final long messageId;
+    public final double score;
+    private final int ordinal;
+
+    Hit(long messageId, double score, int ordinal) {
+      this.messageId = messageId;
+      this.score = score;
+      this.ordinal = ordinal;
+    }
+  }
+
+  private static class Postings {
+    int[] ordinals = new int[4];
+    int[] frequencies = new int[4];
+    int size;
+
+    void add(int ordinal, int frequency) {
+      if (size == ordinals.length) {
+        ordinals = Arrays.copyOf(ordinals, size * 2);
+        frequencies = Arrays.copyOf(frequencies, size * 2);
+      }
+      ordinals[size] = ordinal;
+      frequencies[size] = frequency;
+      size++;
+    }
+
+    /**
+     * Find the first position at or after from whose ordinal is at least the
+     * target, galloping forward and then binary searching.
+     */
+    int seek(int target, int from) {
+      if (from >= size || ordinals[from] >= target) {
+        return from;
+      }
+      int step = 1;
+      int low = from;
+      int high = from + 1;
+      while (high < size && ordinals[high] < target) {
+        low = high;
+        step <<= 1;
+        high = from + step;
+      }
+      high = Math.min(high, size);
+      int found = Arrays.binarySearch(ordinals, low + 1, high, target);
+      return found >= 0 ? found : -found - 1;
+    }
+  }
+
+  /**
+   * Minimal open-addressing set of message ids, to avoid boxing a Long for
+   * every indexed message.
+   */
+  private static class IdSet {
+    private long[] table = new long[2048];
+    private int count;
+    private boolean containsZero;
+
+    boolean add(long id) {
+      if (id == 0) {
+        boolean added = !containsZero;
+        containsZero = true;
+        return added;
+      }
+      if ((count + 1) * 2 > table.length) {
+        long[] old = table;
+        table = new long[old.length * 2];
+        for (long existing : old) {
+          if (existing != 0) {
+            insert(existing);
+          }
+        }
+      }
+      if (insert(id)) {
+        count++;
+        return true;
+      }
+      return false;
+    }
+
+    private boolean insert(long id) {
+      int mask = table.length - 1;
+      int slot = Long.hashCode(id * 0x9E3779B97F4A7C15L) & mask;
+      while (table[slot] != 0) {
+        if (table[slot] == id) {
+          return false;
+        }
+        slot = (slot + 1) & mask;
+      }
+      table[slot] = id;
+      return true;
+    }
+  }
+}
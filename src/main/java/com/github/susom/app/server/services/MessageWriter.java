@@ -0,0 +1,261 @@
+/*
+ * Copyright 2026 The Board of Trustees of The Leland Stanford Junior University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.susom.app.server.services;
+
+import com.github.susom.database.DatabaseProvider;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Insert messages using group commit. Callers add messages to a bounded
+ * queue, and a single background thread takes everything waiting (up to a
+ * maximum batch size, waiting briefly for more to arrive) and inserts it
+ * with one JDBC batch and one commit. That means one commit is shared by
+ * many callers rather than each paying for their own.
+ *
+ * <p>Durability: the future returned by {@link #add(String)} completes only
+ * after the transaction containing the message has committed, so a caller
+ * that has its id can rely on the message being stored. If the transaction
+ * fails, every message in that batch fails, and nothing is retried. Messages
+ * still in the queue when the process dies are lost, but none of them will
+ * have been acknowledged. After {@link #close()}, new messages are rejected,
+ * and anything the writer thread could not write before it stopped is
+ * failed with {@link ClosedException}.</p>
+ */
+public class MessageWriter {
+  private static final Logger log = LoggerFactory.getLogger(MessageWriter.class);
+  private final DatabaseProvider.Builder db;
+  private final MessageCache cache;
+  private final int maxBatchSize;
+  private final long maxDelayNanos;
+  private final BlockingQueue<Pending> queue;
+  private final Thread drainer;
+  private final List<Consumer<List<Long>>> listeners = new CopyOnWriteArrayList<>();
+  private final LongAdder batches = new LongAdder();
+  private final LongAdder written = new LongAdder();
+  private final LongAdder rejected = new LongAdder();
+  // Only set while holding the lock on this, so nothing can be queued after the writer thread sees it
+  private volatile boolean closed;
+
+  /**
+   * @param cache if not null, cache entries for new messages will be invalidated
+   *              once they have been committed
+   * @param maxBatchSize the most messages to insert in one transaction
+   * @param maxDelayMillis how long to wait for more messages before writing
+   *                       a batch that is not full
+   * @param queueCapacity how many messages may be waiting before new ones are rejected
+   */
+  public MessageWriter(DatabaseProvider.Builder db, MessageCache cache, int maxBatchSize, long maxDelayMillis,
+                       int queueCapacity) {
+    this.db = db;
+    this.cache = cache;
+    this.maxBatchSize = maxBatchSize;
+    this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+    this.queue = new ArrayBlockingQueue<>(queueCapacity);
+    drainer = new Thread(this::drain, "message-writer");
+    drainer.setDaemon(true);
+    drainer.start();
+  }
+
+  /**
+   * Queue a message to be inserted.
+   *
+   * @return a future that will provide the new message id once it has been
+   *         committed; it fails immediately with {@link QueueFullException}
+   *         if too many messages are already waiting, or {@link ClosedException}
+   *         if the writer has been closed
+   */
+  public CompletableFuture<Long> add(String message) {
+    Pending pending = new Pending(message);
+    synchronized (this) {
+      if (closed) {
+        pending.future.completeExceptionally(new ClosedException());
+      } else if (!queue.offer(pending)) {
+        rejected.increment();
+        pending.future.completeExceptionally(new QueueFullException());
+      }
+    }
+    return pending.future;
+  }
+
+  /**
+   * Register a callback to be notified of the ids of messages after they
+   * have been committed. It is called on the writer thread, once per batch,
+   * so it should hand the ids off quickly rather than doing any real work.
+   */
+  public void addListener(Consumer<List<Long>> listener) {
+    listeners.add(listener);
+  }
+
+  /**
+   * Stop accepting messages and wait for those already queued to be written.
+   */
+  public void close() {
+    synchronized (this) {
+      closed = true;
+    }
+    try {
+      drainer.join(TimeUnit.SECONDS.toMillis(30));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  public int queuedCount() {
+    return queue.size();
+  }
+
+  public long batchCount() {
+    return batches.sum();
+  }
+
+  public long writtenCount() {
+    return written.sum();
+  }
+
+  public long rejectedCount() {
+    return rejected.sum();
+  }
+
+  private void drain() {
+    List<Pending> batch = new ArrayList<>(maxBatchSize);
+    while (!closed || !queue.isEmpty()) {
+      try {
+        Pending first = queue.poll(100, TimeUnit.MILLISECONDS);
+        if (first == null) {
+          continue;
+        }
+        batch.add(first);
+
+        // Gather whatever else is waiting, giving stragglers a moment to arrive
+        long deadline = System.nanoTime() + maxDelayNanos;
+        while (batch.size() < maxBatchSize) {
+          queue.drainTo(batch, maxBatchSize - batch.size());
+          long remaining = deadline - System.nanoTime();
+          if (batch.size() >= maxBatchSize || remaining <= 0) {
+            break;
+          }
+          Pending next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+          if (next == null) {
+            break;
+          }
+          batch.add(next);
+        }
+
+        write(batch);
+      } catch (InterruptedException e) {
+        log.warn("Message writer interrupted with " + (batch.size() + queue.size()) + " messages queued");
+        for (Pending pending : batch) {
+          pending.future.completeExceptionally(new ClosedException());
+        }
+        Thread.currentThread().interrupt();
+        break;
+      } catch (Throwable t) {
+        log.error("Unexpected error in message writer", t);
+      } finally {
+        batch.clear();
+      }
+    }
+    failRemaining();
+  }
+
+  private void failRemaining() {
+    synchronized (this) {
+      closed = true;
+    }
+    List<Pending> remaining = new ArrayList<>();
+    queue.drainTo(remaining);
+    for (Pending pending : remaining) {
+      pending.future.completeExceptionally(new ClosedException());
+    }
+  }
+
+  private void write(List<Pending> batch) {
+    List<String> messages = new ArrayList<>(batch.size());
+    for (Pending pending : batch) {
+      messages.add(pending.message);
+    }
+
+    List<Long> ids = new ArrayList<>(batch.size());
+    try {
+      db.transact(dbs -> ids.addAll(new MessageDao(dbs).withBatchSize(maxBatchSize).addMessages(messages)));
+    } catch (Exception e) {
+      log.error("Unable to write batch of " + batch.size() + " messages", e);
+      for (Pending pending : batch) {
+        pending.future.completeExceptionally(e);
+      }
+      return;
+    }
+
+    // The transaction has committed, so now the new ids can safely be dropped
+    // from the cache (they may have been cached as missing), and we can let
+    // the callers know
+    if (cache != null) {
+      for (Long id : ids) {
+        cache.invalidate(id);
+      }
+    }
+    batches.increment();
+    written.add(batch.size());
+    for (int i = 0; i < batch.size(); i++) {
+      batch.get(i).future.complete(ids.get(i));
+    }
+    for (Consumer<List<Long>> listener : listeners) {
+      try {
+        listener.accept(Collections.unmodifiableList(ids));
+      } catch (Exception e) {
+        log.error("Message listener failed", e);
+      }
+    }
+  }
+
+  private static class Pending {
+    final String message;
+    final CompletableFuture<Long> future = new CompletableFuture<>();
+
+    Pending(String message) {
+      this.message = message;
+    }
+  }
+
+  /**
+   * Indicates a message was not accepted because too many are already waiting to be written.
+   */
+  public static class QueueFullException extends RuntimeException {
+    public QueueFullException() {
+      super("Too many messages are waiting to be written");
+    }
+  }
+
+  /**
+   * Indicates a message was not accepted or not written because the writer was closed.
+   */
+  public static class ClosedException extends RuntimeException {
+    public ClosedException() {
+      super("The message writer has been closed");
+    }
+  }
+}
@@ -0,0 +1,479 @@
+/*
+ * Copyright 2026 The Board of Trustees of The Leland Stanford Junior University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.susom.app.server.services;
+
+import com.github.susom.database.Database;
+import com.github.susom.database.DatabaseProvider;
+import com.github.susom.database.Flavor;
+import com.github.susom.database.Schema;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Versioned changes to the database schema. Each migration has a version
+ * number, and the versions applied to a database are recorded in the
+ * app_schema_version table, so a database can be brought up to date from
+ * any earlier version (including one created before this table existed).
+ *
+ * <p>Migrations are either offline, meaning this code cannot run until the
+ * migration is done, or online, meaning the application can serve while it
+ * runs (for example creating an index, which only affects performance).
+ * Large online changes are done in small transactions with a pause between
+ * them, see {@link #updateInChunks(String, String, String)}, so they never
+ * hold locks for long. Version 5 (filling in app_message.message_length)
+ * is an example.</p>
+ *
+ * <p>Each applied version also records the oldest version of the code that
+ * works with it, so during a rolling deploy older nodes can tell whether the
+ * schema has moved beyond them. Several nodes may start at once; the row for
+ * a version is inserted before applying it, so only one of them does the
+ * work and the others wait for it to finish.</p>
+ */
+public class SchemaMigrations {
+  private static final Logger log = LoggerFactory.getLogger(SchemaMigrations.class);
+  private static final String VERSION_TABLE = "app_schema_version";
+  private static final long ABANDONED_MILLIS = TimeUnit.HOURS.toMillis(1);
+  private final DatabaseProvider.Builder db;
+  private final List<Migration> migrations = new ArrayList<>();
+  private int chunkSize = 1000;
+  private long pauseMillis = 100;
+  private long waitMillis = TimeUnit.MINUTES.toMillis(10);
+  private long pollMillis = 1000;
+
+  public SchemaMigrations(DatabaseProvider.Builder db) {
+    this.db = db;
+
+    // Add new migrations at the end, with the next version number. Never
+    // change one that has been released, since it may already have run.
+    add(new Migration(1, "Create app_message table and app_pk_seq sequence", 1, false, builder ->
+        builder.transact(dbs -> {
+          // @formatter:off
+          new Schema()
+            .addTable("app_message")
+              .withComment("Store the various messages we will return.")
+              .withStandardPk()
+              .trackUpdateTime()
+              .addColumn("message").asString(4000).schema()
+            .addSequence("app_pk_seq").start(1000).schema().execute(dbs);
+          // @formatter:on
+        })));
+    add(new Migration(2, "Index app_message.update_time", 1, true, builder ->
+        createIndexOnline(builder, "app_message_update_ix", "app_message", "update_time")));
+    add(new Migration(3, "Create app_replica_heartbeat table", 1, true, builder ->
+        builder.transact(dbs -> {
+          // Databases adopted from before versioning may already have it
+          if (!dbs.get().tableExists("app_replica_heartbeat")) {
+            // @formatter:off
+            new Schema()
+              .addTable("app_replica_heartbeat")
+                .withComment("Updated regularly on the primary so we can tell how far behind a replica is.")
+                .addColumn("heartbeat_id").asInteger().notNull().table()
+                .addColumn("beat_millis").asLong().notNull().table()
+                .primaryKey("app_replica_heartbeat_pk", "heartbeat_id").schema().execute(dbs);
+            // @formatter:on
+          }
+          if (dbs.get().toSelect("select count(*) from app_replica_heartbeat where heartbeat_id=1")
+              .queryLongOrZero() == 0) {
+            dbs.get().toInsert("insert into app_replica_heartbeat (heartbeat_id, beat_millis) values (1, 0)")
+                .insert(1);
+          }
+        })));
+    add(new Migration(4, "Add app_message.message_length column", 1, false, builder ->
+        builder.transact(dbs -> {
+          Database database = dbs.get();
+          database.ddl("alter table app_message add message_length "
+              + (database.flavor() == Flavor.oracle ? "number(10)" : "integer")).execute();
+        })));
+    add(new Migration(5, "Fill in app_message.message_length", 1, true, builder ->
+        updateInChunks("app_message", "message_length=length(message)",
+            "message_length is null and message is not null")));
+  }
+
+  /**
+   * Control how hard large online migrations push the database.
+   *
+   * @param chunkSize rows to change in each transaction
+   * @param pauseMillis time to wait between transactions
+   */
+  public SchemaMigrations withThrottle(int chunkSize, long pauseMillis) {
+    this.chunkSize = chunkSize;
+    this.pauseMillis = pauseMillis;
+    return this;
+  }
+
+  /**
+   * Control how long to wait for a migration another node is applying.
+   *
+   * @param waitMillis give up (and fail) after waiting this long
+   * @param pollMillis time between checks of whether it has finished
+   */
+  public SchemaMigrations withClaimWait(long waitMillis, long pollMillis) {
+    this.waitMillis = waitMillis;
+    this.pollMillis = pollMillis;
+    return this;
+  }
+
+  /**
+   * @return the schema version this code was written for
+   */
+  public int codeVersion() {
+    return migrations.get(migrations.size() - 1).version;
+  }
+
+  /**
+   * Compare the database with what this code expects, without changing anything.
+   */
+  public Status status() {
+    Status[] status = new Status[1];
+    db.transact(dbs -> {
+      Database database = dbs.get();
+      if (!database.tableExists(VERSION_TABLE)) {
+        // Created before versioning, or not at all
+        int version = database.tableExists("app_message") ? 1 : 0;
+        status[0] = new Status(version, version, pending(Collections.singletonMap(1, version == 1)));
+        return;
+      }
+      Map<Integer, Boolean> applied = new HashMap<>();
+      int[] versions = { 0, 0 };
+      database.toSelect("select version_num, min_code_version, status from " + VERSION_TABLE).query(rs -> {
+        while (rs.next()) {
+          int version = rs.getIntegerOrZero();
+          int minCodeVersion = rs.getIntegerOrZero();
+          boolean done = "done".equals(rs.getStringOrNull());
+          applied.put(version, done);
+          if (done) {
+            versions[0] = Math.max(versions[0], version);
+            versions[1] = Math.max(versions[1], minCodeVersion);
+          }
+        }
+        return null;
+      });
+      status[0] = new Status(versions[0], versions[1], pending(applied));
+    });
+    return status[0];
+  }
+
+  /**
+   * Apply migrations that have not been applied yet, in order.
+   *
+   * @param includeOnline true to apply everything, false to apply only what
+   *                      is needed before this code can run (online migrations
+   *                      at the end are left to be run after startup)
+   * @return the versions applied by this call (not those applied meanwhile
+   *         by other nodes, which we wait for)
+   * @throws IllegalStateException if a migration fails, or another node takes
+   *         longer than the configured wait to apply one
+   */
+  public List<Integer> migrate(boolean includeOnline) {
+    createVersionTable();
+    List<Migration> pending = status().pending;
+    int stop = pending.size();
+    if (!includeOnline) {
+      while (stop > 0 && pending.get(stop - 1).online) {
+        stop--;
+      }
+    }
+    List<Integer> appliedNow = new ArrayList<>();
+    for (Migration migration : pending.subList(0, stop)) {
+      if (!claim(migration)) {
+        log.info("Schema version {} is being applied elsewhere, waiting for it", migration.version);
+        if (awaitOrClaim(migration)) {
+          continue;
+        }
+      }
+      log.info("Applying schema version {}: {}", migration.version, migration.description);
+      long start = System.nanoTime();
+      try {
+        migration.step.apply(db);
+      } catch (Exception e) {
+        // Release our claim so the migration can be retried
+        db.transact(dbs -> dbs.get().toDelete("delete from " + VERSION_TABLE + " where version_num=?")
+            .argInteger(migration.version).update(1));
+        throw new IllegalStateException("Unable to apply schema version " + migration.version, e);
+      }
+      db.transact(dbs -> dbs.get().toUpdate("update " + VERSION_TABLE
+          + " set status='done', finished_time=? where version_num=?")
+          .argDateNowPerDb().argInteger(migration.version).update(1));
+      log.info("Applied schema version {} in {}ms", migration.version,
+          TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+      appliedNow.add(migration.version);
+    }
+    return appliedNow;
+  }
+
+  /**
+   * Wait for another node to finish applying a migration. If it gives up
+   * (or dies and its claim is abandoned) we claim the migration ourselves.
+   *
+   * @return true if it was applied elsewhere, false if we claimed it
+   */
+  private boolean awaitOrClaim(Migration migration) {
+    long deadline = System.currentTimeMillis() + waitMillis;
+    while (System.currentTimeMillis() < deadline) {
+      try {
+        Thread.sleep(pollMillis);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted waiting for schema version " + migration.version, e);
+      }
+      String[] status = new String[1];
+      db.transact(dbs -> status[0] = dbs.get().toSelect("select status from " + VERSION_TABLE
+          + " where version_num=?").argInteger(migration.version).queryStringOrNull());
+      if ("done".equals(status[0])) {
+        log.info("Schema version {} was applied elsewhere", migration.version);
+        return true;
+      }
+      if (claim(migration)) {
+        return false;
+      }
+    }
+    throw new IllegalStateException("Timed out waiting for schema version " + migration.version
+        + " to be applied elsewhere");
+  }
+
+  /**
+   * Update every row of a table in chunks of primary key values, committing
+   * and pausing between chunks. The chunks are fixed ranges of keys between
+   * the lowest and highest keys when we start, so this works even if rows are being
+   * added concurrently, and the where clause should exclude rows that no
+   * longer need changing so an interrupted run can simply be repeated.
+   *
+   * @param table the table, with a standard primary key (table_id)
+   * @param set the SQL of a set clause, e.g. "message_length=length(message)"
+   * @param where additional condition, e.g. "message_length is null", or null
+   * @return the number of rows updated
+   */
+  public long updateInChunks(String table, String set, String where) throws InterruptedException {
+    String pk = table + "_id";
+    long[] range = new long[2];
+    db.transact(dbs -> dbs.get().toSelect("select min(" + pk + "), max(" + pk + ") from " + table).query(rs -> {
+      if (rs.next()) {
+        range[0] = rs.getLongOrZero() - 1;
+        range[1] = rs.getLongOrZero();
+      }
+      return null;
+    }));
+
+    String sql = "update " + table + " set " + set + " where " + pk + " > ? and " + pk + " <= ?"
+        + (where == null ? "" : " and (" + where + ")");
+    long updated = 0;
+    for (long from = range[0]; from < range[1]; from += chunkSize) {
+      if (from > range[0] && pauseMillis > 0) {
+        Thread.sleep(pauseMillis);
+      }
+      long start = from;
+      int[] count = new int[1];
+      db.transact(dbs -> count[0] = dbs.get().toUpdate(sql).argLong(start).argLong(start + chunkSize).update());
+      updated += count[0];
+      log.debug("Updated {} rows of {} up to {} {}", count[0], table, pk, start + chunkSize);
+    }
+    return updated;
+  }
+
+  private void add(Migration migration) {
+    if (!migrations.isEmpty() && migration.version != codeVersion() + 1) {
+      throw new IllegalStateException("Schema versions must be consecutive");
+    }
+    migrations.add(migration);
+  }
+
+  private List<Migration> pending(Map<Integer, Boolean> applied) {
+    List<Migration> pending = new ArrayList<>();
+    for (Migration migration : migrations) {
+      if (!Boolean.TRUE.equals(applied.get(migration.version))) {
+        pending.add(migration);
+      }
+    }
+    return pending;
+  }
+
+  private void createVersionTable() {
+    try {
+      createVersionTableIfMissing();
+    } catch (Exception e) {
+      // Perhaps another node just created it
+      boolean[] exists = new boolean[1];
+      db.transact(dbs -> exists[0] = dbs.get().tableExists(VERSION_TABLE));
+      if (!exists[0]) {
+        throw e;
+      }
+    }
+  }
+
+  private void createVersionTableIfMissing() {
+    db.transact(dbs -> {
+      Database database = dbs.get();
+      if (database.tableExists(VERSION_TABLE)) {
+        return;
+      }
+      boolean oracle = database.flavor() == Flavor.oracle;
+      database.ddl("create table " + VERSION_TABLE + " (version_num " + (oracle ? "number(10)" : "integer")
+          + " not null, description " + (oracle ? "varchar2(200)" : "varchar(200)")
+          + " not null, min_code_version " + (oracle ? "number(10)" : "integer")
+          + " not null, status " + (oracle ? "varchar2(10)" : "varchar(10)")
+          + " not null, started_time timestamp(3) not null, finished_time timestamp(3),"
+          + " constraint " + VERSION_TABLE + "_pk primary key (version_num))").execute();
+
+      // A database from before versioning already has the first version
+      if (database.tableExists("app_message")) {
+        Migration first = migrations.get(0);
+        database.toInsert("insert into " + VERSION_TABLE + " (version_num, description, min_code_version, status,"
+            + " started_time, finished_time) values (?,?,?,'done',?,?)").argInteger(first.version)
+            .argString(first.description).argInteger(first.minCodeVersion).argDateNowPerDb().argDateNowPerDb()
+            .insert(1);
+      }
+    });
+  }
+
+  /**
+   * Record that we are applying a migration, unless someone else is.
+   */
+  private boolean claim(Migration migration) {
+    try {
+      db.transact(dbs -> dbs.get().toInsert("insert into " + VERSION_TABLE + " (version_num, description,"
+          + " min_code_version, status, started_time) values (?,?,?,'running',?)").argInteger(migration.version)
+          .argString(migration.description).argInteger(migration.minCodeVersion).argDateNowPerDb().insert(1));
+      return true;
+    } catch (Exception e) {
+      // Already claimed; take over only if whoever claimed it seems to have died
+      boolean[] claimed = new boolean[1];
+      db.transact(dbs -> {
+        Date started = dbs.get().toSelect("select started_time from " + VERSION_TABLE
+            + " where version_num=? and status='running'").argInteger(migration.version).queryDateOrNull();
+        if (started != null && System.currentTimeMillis() - started.getTime() > ABANDONED_MILLIS) {
+          claimed[0] = dbs.get().toUpdate("update " + VERSION_TABLE + " set started_time=?"
+              + " where version_num=? and started_time=?").argDateNowPerDb().argInteger(migration.version)
+              .argDate(started).update() == 1;
+        }
+      });
+      return claimed[0];
+    }
+  }
+
+  /**
+   * Create an index, if it does not already exist, holding locks as little
+   * as the database allows. Oracle builds it online, without blocking writes.
+   * PostgreSQL can only do that (create index concurrently) outside of a
+   * transaction, which the database layer does not allow, so there reads
+   * continue but writes wait while the index is built.
+   */
+  static void createIndexOnline(DatabaseProvider.Builder builder, String index, String table, String columns) {
+    builder.transact(dbs -> {
+      Database database = dbs.get();
+      Flavor flavor = database.flavor();
+      if (flavor == Flavor.postgresql) {
+        database.ddl("create index if not exists " + index + " on " + table + " (" + columns + ")").execute();
+        return;
+      }
+
+      String existsSql = flavor == Flavor.oracle ? "select count(*) from user_indexes where index_name=upper(?)"
+          : "select count(*) from information_schema.system_indexinfo where index_name=upper(?)";
+      if (database.toSelect(existsSql).argString(index).queryLongOrZero() == 0) {
+        database.ddl("create index " + index + " on " + table + " (" + columns + ")"
+            + (flavor == Flavor.oracle ? " online" : "")).execute();
+      }
+    });
+  }
+
+  /**
+   * How the database schema compares with this code.
+   */
+  public class Status {
+    /** The highest version applied, or zero if there is no schema at all */
+    public final int databaseVersion;
+    /** The oldest code version that may use the database as it is */
+    public final int minCodeVersion;
+    /** Migrations not yet applied, in order */
+    public final List<Migration> pending;
+
+    Status(int databaseVersion, int minCodeVersion, List<Migration> pending) {
+      this.databaseVersion = databaseVersion;
+      this.minCodeVersion = minCodeVersion;
+      this.pending = Collections.unmodifiableList(pending);
+    }
+
+    /**
+     * @return true if the database has been changed in a way this code does not understand
+     */
+    public boolean codeTooOld() {
+      return minCodeVersion > codeVersion();
+    }
+
+    /**
+     * @return true if migrations this code cannot run without have not been applied yet
+     */
+    public boolean offlinePending() {
+      for (Migration migration : pending) {
+        if (!migration.online) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /**
+     * @return true if this code can serve requests using the database as it is
+     */
+    public boolean compatible() {
+      return databaseVersion > 0 && !codeTooOld() && !offlinePending();
+    }
+
+    @Override
+    public String toString() {
+      return "database version " + databaseVersion + " (requires code version " + minCodeVersion
+          + "), code version " + codeVersion() + ", " + pending.size() + " pending";
+    }
+  }
+
+  /**
+   * One versioned change to the schema.
+   */
+  public static class Migration {
+    public final int version;
+    public final String description;
+    public final int minCodeVersion;
+    public final boolean online;
+    private final Step step;
+
+    /**
+     * @param minCodeVersion the oldest code version that works once this has been applied
+     * @param online true if the application can serve while this is being applied
+     */
+    Migration(int version, String description, int minCodeVersion, boolean online, Step step) {
+      this.version = version;
+      this.description = description;
+      this.minCodeVersion = minCodeVersion;
+      this.online = online;
+      this.step = step;
+    }
+  }
+
+  @FunctionalInterface
+  interface Step {
+    /**
+     * Apply the change. Offline migrations normally use a single transaction,
+     * while online ones use as many small ones as they need.
+     */
+    void apply(DatabaseProvider.Builder db) throws Exception;
+  }
+}
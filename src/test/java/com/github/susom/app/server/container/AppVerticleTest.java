@@ -0,0 +1,270 @@
+/*
+ * Copyright 2026 The Board of Trustees of The Leland Stanford Junior University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.susom.app.server.container;
+
+import com.github.susom.app.server.services.CreateSchema;
+import com.github.susom.database.Config;
+import com.github.susom.database.DatabaseProvider;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Vertx;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Run the application with several verticle instances, the way Main does.
+ */
+public class AppVerticleTest {
+  private static final int INSTANCES = 4;
+  private final Map<String, String> cookies = new LinkedHashMap<>();
+  private Vertx vertx;
+  private AppServices services;
+  private String base;
+
+  @Before
+  public void startServer() throws Exception {
+    int port = freePort();
+    Config config = config(port);
+    CreateSchema.run(new HashSet<>(), config);
+
+    vertx = Vertx.vertx();
+    services = new AppServices(vertx, config, DatabaseProvider.createPool(config), new SecureRandom());
+    services.register(vertx);
+    services.markReady();
+    deploy(vertx);
+    base = "http://localhost:" + port + services.context();
+
+    assertEquals(port, services.actualPort());
+  }
+
+  @Test
+  public void listensBeforeServicesAreRegistered() throws Exception {
+    int port = freePort();
+    Config config = config(port);
+    CreateSchema.run(new HashSet<>(), config);
+    String root = "http://localhost:" + port;
+
+    Vertx early = Vertx.vertx();
+    AppServices late = null;
+    try {
+      // Main does this in fast startup mode, while the pool is being created
+      AppServices.expect(early, config);
+      deploy(early);
+      HttpURLConnection connection = get(root + "/status");
+      assertEquals(503, connection.getResponseCode());
+      assertTrue(body(connection).contains("STARTING"));
+      connection = get(root + "/test/me");
+      assertEquals(503, connection.getResponseCode());
+      body(connection);
+
+      late = new AppServices(early, config, DatabaseProvider.createPool(config), new SecureRandom());
+      late.register(early);
+      assertEquals(port, late.actualPort());
+      for (int i = 0; i < 100 && get(root + "/test/me").getResponseCode() == 503; i++) {
+        Thread.sleep(50);
+      }
+      for (int i = 0; i < INSTANCES * 2; i++) {
+        connection = get(root + "/test/me");
+        assertNotEquals(503, connection.getResponseCode());
+        body(connection);
+      }
+
+      // Routes are in place, but still not ready until warm up is done
+      connection = get(root + "/status");
+      assertEquals(503, connection.getResponseCode());
+      body(connection);
+      late.markReady();
+      connection = get(root + "/status");
+      assertEquals(200, connection.getResponseCode());
+      body(connection);
+    } finally {
+      CompletableFuture<Void> closed = new CompletableFuture<>();
+      early.close(result -> closed.complete(null));
+      closed.join();
+      if (late != null) {
+        late.close();
+      }
+    }
+  }
+
+  @Test
+  public void loginIsHonoredByEveryInstance() throws Exception {
+    login();
+
+    // Vert.x hands new connections to the instances in turn, so these
+    // requests are spread across all of them
+    for (int i = 0; i < INSTANCES * 4; i++) {
+      HttpURLConnection connection = get(base + "/me");
+      assertEquals("Request " + i + " was not authenticated", 200, connection.getResponseCode());
+      assertTrue(body(connection).contains("Authenticated as:"));
+    }
+  }
+
+  @Test
+  public void secretSupportsConditionalGet() throws Exception {
+    login();
+    // The first message created with the schema
+    String url = base + "/api/v1/secret?id=1000";
+
+    // Check both the database and the cached paths
+    for (int i = 0; i < 2; i++) {
+      HttpURLConnection connection = get(url);
+      assertEquals(200, connection.getResponseCode());
+      String etag = connection.getHeaderField("ETag");
+      assertNotNull(etag);
+      assertTrue(etag.matches("\"[^\"]+\""));
+      assertEquals("private, no-cache", connection.getHeaderField("Cache-Control"));
+      assertTrue(body(connection).contains("Hello world!"));
+
+      connection = get(url, etag);
+      assertEquals(304, connection.getResponseCode());
+      assertEquals(etag, connection.getHeaderField("ETag"));
+
+      connection = get(url, "\"stale\", W/" + etag);
+      assertEquals(304, connection.getResponseCode());
+
+      connection = get(url, "\"stale\"");
+      assertEquals(200, connection.getResponseCode());
+      assertEquals(etag, connection.getHeaderField("ETag"));
+      body(connection);
+    }
+
+    // Nothing to validate for a message that does not exist
+    HttpURLConnection connection = get(base + "/api/v1/secret?id=999999", "*");
+    assertEquals(200, connection.getResponseCode());
+    assertNull(connection.getHeaderField("ETag"));
+    assertNull(connection.getHeaderField("Cache-Control"));
+    body(connection);
+  }
+
+  @After
+  public void stopServer() {
+    CompletableFuture<Void> closed = new CompletableFuture<>();
+    vertx.close(result -> closed.complete(null));
+    closed.join();
+    services.close();
+  }
+
+  private static Config config(int port) {
+    return Config.from().value("database.url", "jdbc:hsqldb:mem:verticle-" + System.nanoTime())
+        .value("database.user", "SA").value("database.password", "")
+        .value("listen.url", "http://localhost:" + port).value("app.context", "test")
+        .value("insecure.fake.security", "yes").value("insecure.dev.mode", "yes")
+        .value("healthcheck.interval.seconds", "-1").get();
+  }
+
+  private static void deploy(Vertx vertx) throws Exception {
+    CompletableFuture<String> deployed = new CompletableFuture<>();
+    vertx.deployVerticle(AppVerticle.class.getName(), new DeploymentOptions().setInstances(INSTANCES), result -> {
+      if (result.succeeded()) {
+        deployed.complete(result.result());
+      } else {
+        deployed.completeExceptionally(result.cause());
+      }
+    });
+    deployed.get(60, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Authenticate the way a browser would, following redirects and keeping cookies.
+   */
+  private void login() throws IOException {
+    String url = base + "/me";
+    int status = 0;
+    for (int hops = 0; hops < 10; hops++) {
+      HttpURLConnection connection = get(url);
+      status = connection.getResponseCode();
+      String location = connection.getHeaderField("Location");
+      body(connection);
+      if ((status != 302 && status != 303 && status != 307) || location == null) {
+        break;
+      }
+      url = new URL(new URL(url), location).toString();
+    }
+    assertEquals("Unable to log in with fake security", 200, status);
+  }
+
+  private HttpURLConnection get(String url) throws IOException {
+    return get(url, null);
+  }
+
+  private HttpURLConnection get(String url, String ifNoneMatch) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+    if (ifNoneMatch != null) {
+      connection.setRequestProperty("If-None-Match", ifNoneMatch);
+    }
+    connection.setInstanceFollowRedirects(false);
+    // A new connection for every request, so they are not all served by one instance
+    connection.setRequestProperty("Connection", "close");
+    StringBuilder cookieHeader = new StringBuilder();
+    for (Map.Entry<String, String> cookie : cookies.entrySet()) {
+      cookieHeader.append(cookieHeader.length() == 0 ? "" : "; ").append(cookie.getKey()).append('=')
+          .append(cookie.getValue());
+    }
+    if (cookieHeader.length() > 0) {
+      connection.setRequestProperty("Cookie", cookieHeader.toString());
+    }
+    List<String> setCookies = connection.getHeaderFields().get("Set-Cookie");
+    if (setCookies != null) {
+      for (String setCookie : setCookies) {
+        String pair = setCookie.split(";", 2)[0];
+        int equals = pair.indexOf('=');
+        if (equals > 0) {
+          cookies.put(pair.substring(0, equals).trim(), pair.substring(equals + 1).trim());
+        }
+      }
+    }
+    return connection;
+  }
+
+  private String body(HttpURLConnection connection) throws IOException {
+    InputStream in = connection.getResponseCode() < 400 ? connection.getInputStream() : connection.getErrorStream();
+    if (in == null) {
+      return "";
+    }
+    try (InputStream stream = in) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[4096];
+      int read;
+      while ((read = stream.read(buffer)) != -1) {
+        out.write(buffer, 0, read);
+      }
+      return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+  }
+
+  private static int freePort() throws IOException {
+    try (ServerSocket socket = new ServerSocket(0)) {
+      return socket.getLocalPort();
+    }
+  }
+}
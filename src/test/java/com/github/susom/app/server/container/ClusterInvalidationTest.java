@@ -0,0 +1,158 @@
+/*
+ * Copyright 2026 The Board of Trustees of The Leland Stanford Junior University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.susom.app.server.container;
+
+import com.github.susom.app.server.services.MessageCache;
+import com.github.susom.app.server.services.MessageWriter;
+import com.github.susom.app.server.services.SchemaMigrations;
+import com.github.susom.database.Config;
+import com.github.susom.database.DatabaseProvider;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import java.net.DatagramSocket;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Two nodes sharing invalidations over the loopback interface.
+ */
+public class ClusterInvalidationTest {
+  private static final String GROUP = "239.255.27.99";
+  private Vertx vertx;
+  private int port;
+  private Node first;
+  private Node second;
+
+  @Before
+  public void startNodes() throws Exception {
+    vertx = Vertx.vertx();
+    DatabaseProvider.Builder db = DatabaseProvider.fromDriverManager("jdbc:hsqldb:mem:cluster-" + System.nanoTime(),
+        "SA", "");
+    new SchemaMigrations(db).migrate(true);
+    try (DatagramSocket socket = new DatagramSocket(0)) {
+      port = socket.getLocalPort();
+    }
+    first = new Node(db, "shared secret");
+    second = new Node(db, "shared secret");
+
+    // Wait until both are listening, using heartbeats
+    waitFor(() -> first.cluster.receivedCount() > 0 && second.cluster.receivedCount() > 0);
+  }
+
+  @After
+  public void stopNodes() {
+    for (Node node : new Node[] { first, second }) {
+      if (node != null) {
+        node.close();
+      }
+    }
+    CompletableFuture<Void> closed = new CompletableFuture<>();
+    vertx.close(result -> closed.complete(null));
+    closed.join();
+  }
+
+  @Test
+  public void invalidatesOtherNodes() throws Exception {
+    long gaps = second.cluster.gapCount();
+    // Somebody asked the second node for the next id before it existed
+    long id = first.writer.add("First").get(10, TimeUnit.SECONDS);
+    second.cache.put(id + 1, null, second.cache.stamp());
+
+    assertEquals(id + 1, (long) first.writer.add("Second").get(10, TimeUnit.SECONDS));
+    waitFor(() -> second.cache.get(id + 1) == null);
+    assertEquals(gaps, second.cluster.gapCount());
+    assertEquals(0, second.cluster.rejectedCount());
+  }
+
+  @Test
+  public void dropsPacketsWithoutTheSecret() throws Exception {
+    Node other = new Node(first.writer, "wrong secret");
+    try {
+      second.cache.put(1000, null, second.cache.stamp());
+      long rejected = second.cluster.rejectedCount();
+
+      // Pretend to come from a node that started long ago, which would otherwise clear the cache
+      send(new JsonObject().put("node", "forged").put("type", "added").put("seq", 100)
+          .put("ids", new JsonArray().add(1000)));
+      waitFor(() -> second.cluster.rejectedCount() > rejected);
+      waitFor(() -> other.cluster.sentCount() > 0 && second.cluster.rejectedCount() > rejected + 1);
+
+      assertNotNull(second.cache.get(1000));
+      assertEquals(0, second.cluster.gapCount());
+    } finally {
+      other.close();
+    }
+  }
+
+  private void send(JsonObject packet) {
+    CompletableFuture<Void> sent = new CompletableFuture<>();
+    io.vertx.core.datagram.DatagramSocket socket = vertx.createDatagramSocket();
+    socket.send(Buffer.buffer(new byte[32]).appendBuffer(packet.toBuffer()), port, GROUP, result -> {
+      socket.close();
+      sent.complete(null);
+    });
+    sent.join();
+  }
+
+  private void waitFor(BooleanSupplier condition) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (!condition.getAsBoolean()) {
+      assertTrue("Timed out waiting for the other node", System.nanoTime() < deadline);
+      Thread.sleep(10);
+    }
+  }
+
+  private class Node {
+    final MessageCache cache = new MessageCache(100, 1, 1, TimeUnit.MINUTES);
+    final MessageWriter writer;
+    final boolean ownWriter;
+    final ClusterInvalidation cluster;
+
+    Node(DatabaseProvider.Builder db, String secret) {
+      this(new MessageWriter(db, null, 10, 0, 10), true, secret);
+    }
+
+    Node(MessageWriter writer, String secret) {
+      this(writer, false, secret);
+    }
+
+    private Node(MessageWriter writer, boolean ownWriter, String secret) {
+      this.writer = writer;
+      this.ownWriter = ownWriter;
+      Config config = Config.from().value("cluster.invalidation.group", GROUP)
+          .value("cluster.invalidation.port", Integer.toString(port))
+          .value("cluster.invalidation.interface", "lo")
+          .value("cluster.invalidation.heartbeat.millis", "100")
+          .value("cluster.invalidation.secret", secret).get();
+      cluster = new ClusterInvalidation(vertx, config, cache, new MessageEvents(vertx, config, writer), writer);
+    }
+
+    void close() {
+      cluster.close();
+      if (ownWriter) {
+        writer.close();
+      }
+    }
+  }
+}
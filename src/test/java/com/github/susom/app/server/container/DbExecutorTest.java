@@ -0,0 +1,150 @@
+/*
+ * Copyright 2026 The Board of Trustees of The Leland Stanford Junior University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.susom.app.server.container;
+
+import com.github.susom.database.DatabaseProvider;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpServer;
+import io.vertx.ext.web.Router;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DbExecutorTest {
+  private final CountDownLatch release = new CountDownLatch(1);
+  private final AtomicInteger ran = new AtomicInteger();
+  private Vertx vertx;
+  private DatabaseProvider.Builder db;
+  private DbExecutor executor;
+  private int port;
+
+  @Before
+  public void setup() {
+    vertx = Vertx.vertx();
+    db = DatabaseProvider.fromDriverManager("jdbc:hsqldb:mem:executor-" + System.nanoTime(), "SA", "");
+  }
+
+  @Test
+  public void runsTransactions() throws Exception {
+    start(1, 1);
+
+    HttpURLConnection connection = get(1000);
+    assertEquals(200, connection.getResponseCode());
+    assertEquals(1, ran.get());
+    assertEquals(0, executor.pendingCount());
+  }
+
+  @Test
+  public void rejectsWhenQueueIsFull() throws Exception {
+    start(1, 1);
+    blockWorker();
+    // This one waits in the queue, which is then full
+    vertx.runOnContext(v -> executor.transact(null, 60000, dbs -> ran.incrementAndGet(), result -> { }));
+    waitFor(() -> executor.pendingCount() == 2);
+
+    HttpURLConnection connection = get(60000);
+    assertEquals(503, connection.getResponseCode());
+    assertEquals("1", connection.getHeaderField("Retry-After"));
+    assertEquals(1, executor.rejectedCount());
+    assertEquals(2, executor.pendingCount());
+
+    release.countDown();
+    waitFor(() -> executor.pendingCount() == 0);
+    assertEquals(1, ran.get());
+  }
+
+  @Test
+  public void timesOutAndSkipsExpiredWork() throws Exception {
+    start(1, 10);
+    blockWorker();
+
+    HttpURLConnection connection = get(100);
+    assertEquals(504, connection.getResponseCode());
+    assertEquals("1", connection.getHeaderField("Retry-After"));
+    assertEquals(1, executor.timedOutCount());
+
+    // Once a thread is free the expired transaction is dropped without running
+    release.countDown();
+    waitFor(() -> executor.pendingCount() == 0);
+    assertEquals(0, ran.get());
+  }
+
+  @After
+  public void close() {
+    release.countDown();
+    if (executor != null) {
+      executor.close();
+    }
+    CompletableFuture<Void> closed = new CompletableFuture<>();
+    vertx.close(result -> closed.complete(null));
+    closed.join();
+  }
+
+  private void start(int poolSize, int maxQueued) {
+    executor = new DbExecutor(vertx, db, "test-db", poolSize, maxQueued, false);
+    Router root = Router.router(vertx);
+    root.get("/tx").handler(rc -> executor.transact(rc, Long.parseLong(rc.request().getParam("timeout")),
+        dbs -> ran.incrementAndGet(), result -> {
+          if (result.succeeded()) {
+            rc.response().end(String.valueOf(result.result()));
+          } else if (!DbExecutor.sendUnavailable(rc, result.cause())) {
+            rc.fail(result.cause());
+          }
+        }));
+    CompletableFuture<HttpServer> server = new CompletableFuture<>();
+    vertx.createHttpServer().requestHandler(root::accept).listen(0, "localhost", result -> {
+      if (result.succeeded()) {
+        server.complete(result.result());
+      } else {
+        server.completeExceptionally(result.cause());
+      }
+    });
+    port = server.join().actualPort();
+  }
+
+  /**
+   * Occupy a worker thread until the test releases it.
+   */
+  private void blockWorker() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    vertx.runOnContext(v -> executor.transact(null, 60000, dbs -> {
+      started.countDown();
+      return release.await(60, TimeUnit.SECONDS);
+    }, result -> { }));
+    assertTrue(started.await(10, TimeUnit.SECONDS));
+  }
+
+  private HttpURLConnection get(long timeoutMillis) throws Exception {
+    return (HttpURLConnection) new URL("http://localhost:" + port + "/tx?timeout=" + timeoutMillis).openConnection();
+  }
+
+  private void waitFor(BooleanSupplier condition) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (!condition.getAsBoolean()) {
+      assertTrue("Timed out waiting", System.nanoTime() < deadline);
+      Thread.sleep(10);
+    }
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2026 The Board of Trustees of The Leland Stanford Junior University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.susom.app.server.container;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+  private final LatencyHistogram histogram = new LatencyHistogram();
+
+  @Test
+  public void bucketBoundsAreInclusive() {
+    long[] bounds = LatencyHistogram.boundsNanos();
+    assertEquals(1, bounds[0]);
+    assertEquals(16, bounds[15]);
+    assertEquals(17, bounds[16]);
+    assertEquals(1L << 36, bounds[bounds.length - 1]);
+
+    histogram.record(0);
+    histogram.record(bounds[0]);
+    histogram.record(bounds[0] + 1);
+    histogram.record(bounds[1]);
+    histogram.record(bounds[bounds.length - 1]);
+    histogram.record(bounds[bounds.length - 1] + 1);
+
+    long[] counts = histogram.counts();
+    assertEquals(bounds.length + 1, counts.length);
+    assertEquals(2, counts[0]);
+    assertEquals(2, counts[1]);
+    assertEquals(1, counts[bounds.length - 1]);
+    assertEquals(1, counts[bounds.length]);
+    assertEquals(6, histogram.count());
+  }
+
+  @Test
+  public void bucketsAreWithinSixPercent() {
+    long[] bounds = LatencyHistogram.boundsNanos();
+    for (int i = 1; i < bounds.length; i++) {
+      assertTrue(bounds[i] > bounds[i - 1]);
+      // The first 16 buckets hold a single value each, so they are exact
+      assertTrue("Bucket " + i, i <= 16 || (bounds[i] - bounds[i - 1]) * 17 <= bounds[i]);
+    }
+    for (long nanos = 1; nanos <= bounds[bounds.length - 1]; nanos = nanos * 3 + 1) {
+      for (long value : new long[] { nanos - 1, nanos, nanos + 1 }) {
+        int index = LatencyHistogram.index(value);
+        assertTrue(value <= bounds[index]);
+        assertTrue(index == 0 || value > bounds[index - 1]);
+      }
+    }
+  }
+
+  @Test
+  public void boundsAreACopy() {
+    LatencyHistogram.boundsNanos()[0] = 42;
+    assertEquals(1, LatencyHistogram.boundsNanos()[0]);
+  }
+
+  @Test
+  public void sumsRecordedValues() {
+    histogram.record(100);
+    histogram.record(2500);
+    assertEquals(2600, histogram.sumNanos());
+  }
+
+  @Test
+  public void percentileOfNothingIsZero() {
+    assertEquals(0, histogram.percentileNanos(50));
+    assertEquals(0, histogram.percentileNanos(100));
+  }
+
+  @Test
+  public void percentilesReportBucketUpperBounds() {
+    for (int i = 0; i < 90; i++) {
+      histogram.record(TimeUnit.MICROSECONDS.toNanos(30));
+    }
+    for (int i = 0; i < 10; i++) {
+      histogram.record(TimeUnit.MICROSECONDS.toNanos(700));
+    }
+
+    // 30000 falls in (29696, 30720] and 700000 in (688128, 720896]
+    assertEquals(30720, histogram.percentileNanos(0));
+    assertEquals(30720, histogram.percentileNanos(50));
+    assertEquals(30720, histogram.percentileNanos(90));
+    assertEquals(720896, histogram.percentileNanos(90.1));
+    assertEquals(720896, histogram.percentileNanos(99));
+    assertEquals(720896, histogram.percentileNanos(100));
+  }
+
+  @Test
+  public void percentileAboveLastBoundIsUnbounded() {
+    histogram.record(TimeUnit.MICROSECONDS.toNanos(30));
+    histogram.record(TimeUnit.SECONDS.toNanos(90));
+
+    assertEquals(30720, histogram.percentileNanos(50));
+    assertEquals(Long.MAX_VALUE, histogram.percentileNanos(99));
+  }
+}
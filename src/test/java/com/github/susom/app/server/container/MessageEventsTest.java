@@ -0,0 +1,162 @@
+/*
+ * Copyright 2026 The Board of Trustees of The Leland Stanford Junior University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.susom.app.server.container;
+
+import com.github.susom.app.server.services.MessageWriter;
+import com.github.susom.database.Config;
+import com.github.susom.database.DatabaseProvider;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.http.HttpServerOptions;
+import io.vertx.ext.web.Router;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.zip.Inflater;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MessageEventsTest {
+  private static final int GZIP_HEADER_BYTES = 10;
+  private Vertx vertx;
+  private MessageWriter writer;
+  private MessageEvents events;
+  private int port;
+
+  @Before
+  public void startServer() {
+    vertx = Vertx.vertx();
+    // The writer is only needed to register with, nothing is written
+    writer = new MessageWriter(DatabaseProvider.fromDriverManager("jdbc:hsqldb:mem:events-" + System.nanoTime(),
+        "SA", ""), null, 10, 0, 10);
+    events = new MessageEvents(vertx, Config.from().value("events.keepalive.millis", "60000").get(), writer);
+
+    CompletableFuture<HttpServer> server = new CompletableFuture<>();
+    vertx.runOnContext(v -> {
+      Router root = Router.router(vertx);
+      root.get("/events").handler(events.streamHandler(vertx));
+      vertx.createHttpServer(new HttpServerOptions().setCompressionSupported(true)).requestHandler(root::accept)
+          .listen(0, "localhost", result -> {
+            if (result.succeeded()) {
+              server.complete(result.result());
+            } else {
+              server.completeExceptionally(result.cause());
+            }
+          });
+    });
+    port = server.join().actualPort();
+  }
+
+  @After
+  public void closeServer() {
+    writer.close();
+    CompletableFuture<Void> closed = new CompletableFuture<>();
+    vertx.close(result -> closed.complete(null));
+    closed.join();
+  }
+
+  @Test
+  public void forgetsClientsAsSoonAsTheyDisconnect() throws Exception {
+    try (Socket socket = new Socket("localhost", port)) {
+      InputStream in = request(socket, "");
+      String line;
+      while (!(line = readLine(in)).isEmpty()) {
+        assertFalse(line, line.toLowerCase(Locale.ROOT).startsWith("content-encoding"));
+      }
+      assertEquals(1, events.connectionCount());
+    }
+
+    // No event or keepalive is sent, so this can only come from the close
+    waitFor(() -> events.connectionCount() == 0);
+  }
+
+  @Test
+  public void compressedEventsAreNotHeldBack() throws Exception {
+    try (Socket socket = new Socket("localhost", port)) {
+      InputStream in = request(socket, "Accept-Encoding: gzip\r\n");
+      boolean gzip = false;
+      String line;
+      while (!(line = readLine(in)).isEmpty()) {
+        gzip |= line.equalsIgnoreCase("content-encoding: gzip");
+      }
+      assertTrue(gzip);
+
+      // Each write arrives as its own chunk, which can be inflated right away
+      Inflater inflater = new Inflater(true);
+      byte[] first = readChunk(in);
+      inflater.setInput(first, GZIP_HEADER_BYTES, first.length - GZIP_HEADER_BYTES);
+      assertEquals("retry: 5000\n\n", inflate(inflater));
+
+      events.publish(Arrays.asList(7L, 9L));
+      inflater.setInput(readChunk(in));
+      assertEquals("id: 9\nevent: messages\ndata: {\"count\":2,\"lastId\":9,\"ids\":[7,9]}\n\n", inflate(inflater));
+    }
+  }
+
+  private InputStream request(Socket socket, String headers) throws Exception {
+    socket.setSoTimeout(10000);
+    OutputStream out = socket.getOutputStream();
+    out.write(("GET /events HTTP/1.1\r\nHost: localhost\r\n" + headers + "\r\n").getBytes(StandardCharsets.US_ASCII));
+    out.flush();
+    InputStream in = new BufferedInputStream(socket.getInputStream());
+    assertEquals("HTTP/1.1 200 OK", readLine(in));
+    return in;
+  }
+
+  private static String readLine(InputStream in) throws Exception {
+    StringBuilder line = new StringBuilder();
+    int c;
+    while ((c = in.read()) != '\n') {
+      assertTrue("Connection closed", c != -1);
+      if (c != '\r') {
+        line.append((char) c);
+      }
+    }
+    return line.toString();
+  }
+
+  private static byte[] readChunk(InputStream in) throws Exception {
+    byte[] chunk = new byte[Integer.parseInt(readLine(in), 16)];
+    new DataInputStream(in).readFully(chunk);
+    assertEquals("", readLine(in));
+    return chunk;
+  }
+
+  private static String inflate(Inflater inflater) throws Exception {
+    byte[] buffer = new byte[4096];
+    int count = inflater.inflate(buffer);
+    return new String(buffer, 0, count, StandardCharsets.UTF_8);
+  }
+
+  private void waitFor(BooleanSupplier condition) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (!condition.getAsBoolean()) {
+      assertTrue("Timed out waiting for events", System.nanoTime() < deadline);
+      Thread.sleep(10);
+    }
+  }
+}
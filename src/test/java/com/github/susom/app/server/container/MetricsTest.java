@@ -0,0 +1,169 @@
+/*
+ * Copyright 2026 The Board of Trustees of The Leland Stanford Junior University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.susom.app.server.container;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpServer;
+import io.vertx.ext.web.Router;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MetricsTest {
+  private final Metrics metrics = new Metrics();
+  private Vertx vertx;
+
+  @Test
+  public void publishesSamples() {
+    metrics.addSample("widgets_total", "counter", "Widgets made", () -> 42);
+
+    assertTrue(metrics.prometheusText().contains("# HELP widgets_total Widgets made\n"
+        + "# TYPE widgets_total counter\n"
+        + "widgets_total 42\n"));
+  }
+
+  @Test
+  public void publishesCumulativeHistograms() {
+    LatencyHistogram latency = metrics.route("api").latency();
+    latency.record(TimeUnit.MICROSECONDS.toNanos(10));
+    latency.record(TimeUnit.MICROSECONDS.toNanos(50));
+    latency.record(TimeUnit.MICROSECONDS.toNanos(150));
+    latency.record(TimeUnit.SECONDS.toNanos(61));
+    latency.record(TimeUnit.SECONDS.toNanos(90));
+
+    String text = metrics.prometheusText();
+    assertTrue(text.contains("# TYPE http_request_duration_seconds histogram\n"));
+    // Four buckets per power of two are published, from 2^14 nanoseconds up
+    assertTrue(text.contains("http_request_duration_seconds_bucket{route=\"api\",le=\"1.6384E-5\"} 1\n"));
+    assertTrue(text.contains("http_request_duration_seconds_bucket{route=\"api\",le=\"2.048E-5\"} 1\n"));
+    assertTrue(text.contains("http_request_duration_seconds_bucket{route=\"api\",le=\"4.9152E-5\"} 1\n"));
+    assertTrue(text.contains("http_request_duration_seconds_bucket{route=\"api\",le=\"5.7344E-5\"} 2\n"));
+    assertTrue(text.contains("http_request_duration_seconds_bucket{route=\"api\",le=\"1.6384E-4\"} 3\n"));
+    assertTrue(text.contains("http_request_duration_seconds_bucket{route=\"api\",le=\"68.719476736\"} 4\n"));
+    assertTrue(text.contains("http_request_duration_seconds_bucket{route=\"api\",le=\"+Inf\"} 5\n"));
+    assertFalse(text.contains("le=\"1.8432E-5\""));
+    assertTrue(text.contains("http_request_duration_seconds_count{route=\"api\"} 5\n"));
+    assertTrue(text.contains("http_request_duration_seconds_sum{route=\"api\"} 151.00021\n"));
+    assertTrue(text.contains("http_requests_total{route=\"api\",status=\"2xx\"} 0\n"));
+    assertTrue(text.contains("http_requests_in_flight{route=\"api\"} 0\n"));
+  }
+
+  @Test
+  public void recordsCompletedAndAbortedRequests() throws Exception {
+    AtomicBoolean routeCloseHandlerCalled = new AtomicBoolean();
+    vertx = Vertx.vertx();
+    Router root = Router.router(vertx);
+    root.route().handler(metrics);
+    root.get("/ok").handler(metrics.timed("ok", rc -> rc.response().end("ok")));
+    root.get("/hang").handler(metrics.timed("hang", rc ->
+        // Handlers may set their own close handler without losing the metrics
+        rc.response().closeHandler(v -> routeCloseHandlerCalled.set(true))));
+    int port = listen(root);
+
+    HttpURLConnection connection;
+    // Enough requests to reuse the timers
+    for (int i = 0; i < 3; i++) {
+      connection = (HttpURLConnection) new URL("http://localhost:" + port + "/ok").openConnection();
+      assertEquals(200, connection.getResponseCode());
+    }
+    connection = (HttpURLConnection) new URL("http://localhost:" + port + "/nowhere").openConnection();
+    assertEquals(404, connection.getResponseCode());
+    try (Socket socket = new Socket("localhost", port)) {
+      OutputStream out = socket.getOutputStream();
+      out.write("GET /hang HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+      out.flush();
+      waitFor(() -> metrics.prometheusText().contains("http_requests_in_flight{route=\"hang\"} 1\n"));
+    }
+
+    waitFor(() -> metrics.prometheusText().contains("http_requests_total{route=\"hang\",status=\"aborted\"} 1\n"));
+    String text = metrics.prometheusText();
+    assertTrue(text.contains("http_requests_total{route=\"ok\",status=\"2xx\"} 3\n"));
+    assertTrue(text.contains("http_requests_total{route=\"other\",status=\"4xx\"} 1\n"));
+    assertTrue(text.contains("http_requests_in_flight{route=\"ok\"} 0\n"));
+    assertTrue(text.contains("http_requests_in_flight{route=\"hang\"} 0\n"));
+    assertTrue(text.contains("http_requests_in_flight{route=\"other\"} 0\n"));
+    assertTrue(text.contains("http_request_duration_seconds_count{route=\"ok\"} 3\n"));
+    assertTrue(routeCloseHandlerCalled.get());
+  }
+
+  @Test
+  public void countsStreamsAsConnectionsWithoutLatency() throws Exception {
+    AtomicBoolean routeEndHandlerCalled = new AtomicBoolean();
+    vertx = Vertx.vertx();
+    Router root = Router.router(vertx);
+    root.route().handler(metrics);
+    root.get("/events").handler(metrics.streaming("events", rc -> {
+      rc.addEndHandler(result -> routeEndHandlerCalled.set(true));
+      rc.response().setChunked(true).write("data: hello\n\n");
+    }));
+    int port = listen(root);
+
+    try (Socket socket = new Socket("localhost", port)) {
+      OutputStream out = socket.getOutputStream();
+      out.write("GET /events HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+      out.flush();
+      waitFor(() -> metrics.prometheusText().contains("http_requests_in_flight{route=\"events\"} 1\n"));
+      assertTrue(metrics.prometheusText().contains("http_requests_in_flight{route=\"other\"} 0\n"));
+    }
+
+    waitFor(() -> metrics.prometheusText().contains("http_requests_total{route=\"events\",status=\"aborted\"} 1\n"));
+    String text = metrics.prometheusText();
+    assertTrue(text.contains("http_requests_in_flight{route=\"events\"} 0\n"));
+    assertTrue(text.contains("http_request_duration_seconds_count{route=\"events\"} 0\n"));
+    assertTrue(text.contains("http_requests_in_flight{route=\"other\"} 0\n"));
+    assertTrue(text.contains("http_request_duration_seconds_count{route=\"other\"} 0\n"));
+    assertTrue(routeEndHandlerCalled.get());
+  }
+
+  @After
+  public void closeVertx() {
+    if (vertx != null) {
+      CompletableFuture<Void> closed = new CompletableFuture<>();
+      vertx.close(result -> closed.complete(null));
+      closed.join();
+    }
+  }
+
+  private int listen(Router root) {
+    CompletableFuture<HttpServer> server = new CompletableFuture<>();
+    vertx.createHttpServer().requestHandler(root::accept).listen(0, "localhost", result -> {
+      if (result.succeeded()) {
+        server.complete(result.result());
+      } else {
+        server.completeExceptionally(result.cause());
+      }
+    });
+    return server.join().actualPort();
+  }
+
+  private void waitFor(BooleanSupplier condition) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (!condition.getAsBoolean()) {
+      assertTrue("Timed out waiting for metrics", System.nanoTime() < deadline);
+      Thread.sleep(10);
+    }
+  }
+}
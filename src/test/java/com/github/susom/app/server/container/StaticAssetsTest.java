@@ -0,0 +1,252 @@
+/*
+ * Copyright 2026 The Board of Trustees of The Leland Stanford Junior University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.susom.app.server.container;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpServer;
+import io.vertx.ext.web.Router;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.GZIPInputStream;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class StaticAssetsTest {
+  private Vertx vertx;
+  private int port;
+
+  @Test
+  public void etagMatchesSingleValue() {
+    assertTrue(StaticAssets.etagMatches("\"abc\"", "\"abc\""));
+    assertFalse(StaticAssets.etagMatches("\"abd\"", "\"abc\""));
+    assertFalse(StaticAssets.etagMatches("abc", "\"abc\""));
+    assertFalse(StaticAssets.etagMatches(null, "\"abc\""));
+    assertFalse(StaticAssets.etagMatches("", "\"abc\""));
+  }
+
+  @Test
+  public void etagMatchesList() {
+    assertTrue(StaticAssets.etagMatches("\"x\", \"abc\",\"y\"", "\"abc\""));
+    assertTrue(StaticAssets.etagMatches("\"x\",\"abc\"", "\"abc\""));
+    assertFalse(StaticAssets.etagMatches("\"x\", \"y\"", "\"abc\""));
+  }
+
+  @Test
+  public void etagMatchesAnything() {
+    assertTrue(StaticAssets.etagMatches("*", "\"abc\""));
+    assertTrue(StaticAssets.etagMatches(" * ", "\"abc\""));
+  }
+
+  @Test
+  public void etagMatchesWeakly() {
+    assertTrue(StaticAssets.etagMatches("W/\"abc\"", "\"abc\""));
+    assertTrue(StaticAssets.etagMatches("\"x\", W/\"abc\"", "\"abc\""));
+    assertTrue(StaticAssets.etagMatches("\"abc\"", "W/\"abc\""));
+    assertFalse(StaticAssets.etagMatches("W/\"abd\"", "\"abc\""));
+  }
+
+  @Test
+  public void etagIsContentHash() throws Exception {
+    start(true);
+
+    HttpURLConnection connection = get("/", null);
+    assertEquals(200, connection.getResponseCode());
+    String expected = Base64.getUrlEncoder().withoutPadding().encodeToString(MessageDigest.getInstance("SHA-256")
+        .digest(resource("static/secure-app/index.nocache.html"))).substring(0, 22);
+    assertEquals("W/\"" + expected + '"', connection.getHeaderField("ETag"));
+    assertEquals("no-cache", connection.getHeaderField("Cache-Control"));
+    assertNull(connection.getHeaderField("Content-Encoding"));
+  }
+
+  @Test
+  public void compressedVariantHasItsOwnEtag() throws Exception {
+    start(true);
+
+    HttpURLConnection connection = get("/", null);
+    String identityEtag = connection.getHeaderField("ETag");
+
+    connection = get("/", null);
+    connection.setRequestProperty("Accept-Encoding", "gzip");
+    assertEquals(200, connection.getResponseCode());
+    assertEquals("gzip", connection.getHeaderField("Content-Encoding"));
+    String gzipEtag = connection.getHeaderField("ETag");
+    assertEquals(identityEtag.substring(2, identityEtag.length() - 1) + "-gzip\"", gzipEtag);
+    try (InputStream in = new GZIPInputStream(connection.getInputStream())) {
+      assertArrayEquals(resource("static/secure-app/index.nocache.html"), read(in));
+    }
+
+    // A tag for any variant means the client has the current content
+    connection = get("/", identityEtag);
+    connection.setRequestProperty("Accept-Encoding", "gzip");
+    assertEquals(304, connection.getResponseCode());
+    assertEquals(gzipEtag, connection.getHeaderField("ETag"));
+
+    connection = get("/", gzipEtag);
+    assertEquals(304, connection.getResponseCode());
+    assertEquals(identityEtag, connection.getHeaderField("ETag"));
+  }
+
+  @Test
+  public void compressedFilesAreNotServedFromMemory() throws Exception {
+    start(true);
+    assertEquals(404, get("/assets/test-fixture.css.gz", null).getResponseCode());
+  }
+
+  @Test
+  public void compressedFilesAreNotPassedToDelegate() throws Exception {
+    start(false);
+    assertEquals(404, get("/assets/test-fixture.css.gz", null).getResponseCode());
+    assertEquals(200, get("/assets/test-fixture.css", null).getResponseCode());
+  }
+
+  @Test
+  public void conditionalGetFromMemory() throws Exception {
+    start(true);
+    conditionalGet();
+  }
+
+  @Test
+  public void conditionalGetFromDelegate() throws Exception {
+    start(false);
+    conditionalGet();
+  }
+
+  @Test
+  public void fingerprintedAssetsAreImmutable() throws Exception {
+    start(true);
+
+    HttpURLConnection connection = get("/assets/test-fixture.0123abcd.css", null);
+    assertEquals(200, connection.getResponseCode());
+    assertEquals("public, max-age=31536000, immutable", connection.getHeaderField("Cache-Control"));
+    assertNotNull(connection.getHeaderField("ETag"));
+    assertTrue(connection.getHeaderField("Content-Type").startsWith("text/css"));
+    assertArrayEquals(resource("static/assets/test-fixture.0123abcd.css"), body(connection));
+  }
+
+  @Test
+  public void otherAssetsAreRevalidated() throws Exception {
+    start(true);
+
+    HttpURLConnection connection = get("/assets/test-fixture.css", null);
+    assertEquals(200, connection.getResponseCode());
+    assertEquals("no-cache", connection.getHeaderField("Cache-Control"));
+    String etag = connection.getHeaderField("ETag");
+    assertNotNull(etag);
+    assertTrue(connection.getHeaderField("Content-Type").startsWith("text/css"));
+    assertArrayEquals(resource("static/assets/test-fixture.css"), body(connection));
+
+    connection = get("/assets/test-fixture.css", etag);
+    assertEquals(304, connection.getResponseCode());
+  }
+
+  @Test
+  public void unknownPathsGoToDelegate() throws Exception {
+    start(true);
+
+    HttpURLConnection connection = get("/missing.html", null);
+    assertEquals(404, connection.getResponseCode());
+    assertNull(connection.getHeaderField("ETag"));
+  }
+
+  @After
+  public void closeVertx() {
+    if (vertx != null) {
+      CompletableFuture<Void> closed = new CompletableFuture<>();
+      vertx.close(result -> closed.complete(null));
+      closed.join();
+    }
+  }
+
+  private void conditionalGet() throws Exception {
+    HttpURLConnection connection = get("/", null);
+    assertEquals(200, connection.getResponseCode());
+    String etag = connection.getHeaderField("ETag");
+    assertNotNull(etag);
+
+    connection = get("/", etag);
+    assertEquals(304, connection.getResponseCode());
+    assertEquals(etag, connection.getHeaderField("ETag"));
+    assertEquals("no-cache", connection.getHeaderField("Cache-Control"));
+
+    connection = get("/", "\"other\", " + etag);
+    assertEquals(304, connection.getResponseCode());
+
+    connection = get("/", "\"other\"");
+    assertEquals(200, connection.getResponseCode());
+    assertEquals(etag, connection.getHeaderField("ETag"));
+  }
+
+  private void start(boolean inMemory) {
+    vertx = Vertx.vertx();
+    StaticAssets staticAssets = new StaticAssets("index.nocache.html", inMemory);
+    Router root = Router.router(vertx);
+    // Stands in for StrictResourceHandler, which serves the content when it is not in memory
+    root.get("/*").handler(staticAssets.handler(rc -> {
+      if (rc.normalisedPath().startsWith("/missing")) {
+        rc.response().setStatusCode(404).end();
+      } else {
+        rc.response().end("content from the delegate");
+      }
+    }));
+    CompletableFuture<HttpServer> server = new CompletableFuture<>();
+    vertx.createHttpServer().requestHandler(root::accept).listen(0, "localhost", result -> {
+      if (result.succeeded()) {
+        server.complete(result.result());
+      } else {
+        server.completeExceptionally(result.cause());
+      }
+    });
+    port = server.join().actualPort();
+  }
+
+  private HttpURLConnection get(String path, String ifNoneMatch) throws Exception {
+    HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + port + path).openConnection();
+    if (ifNoneMatch != null) {
+      connection.setRequestProperty("If-None-Match", ifNoneMatch);
+    }
+    return connection;
+  }
+
+  private static byte[] body(HttpURLConnection connection) throws Exception {
+    try (InputStream in = connection.getInputStream()) {
+      return read(in);
+    }
+  }
+
+  private static byte[] resource(String name) throws Exception {
+    try (InputStream in = StaticAssetsTest.class.getClassLoader().getResourceAsStream(name)) {
+      assertNotNull("Missing resource " + name, in);
+      return read(in);
+    }
+  }
+
+  private static byte[] read(InputStream in) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[4096];
+    int count;
+    while ((count = in.read(buffer)) != -1) {
+      out.write(buffer, 0, count);
+    }
+    return out.toByteArray();
+  }
+}
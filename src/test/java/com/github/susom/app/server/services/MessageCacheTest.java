@@ -0,0 +1,97 @@
+/*
+ * Copyright 2026 The Board of Trustees of The Leland Stanford Junior University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.susom.app.server.services;
+
+import com.github.susom.app.server.services.MessageDao.Message;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MessageCacheTest {
+  private long now = 0;
+  private MessageCache cache = new MessageCache(2, 10, 1, TimeUnit.SECONDS, () -> now);
+
+  @Test
+  public void hitsAndMisses() {
+    assertNull(cache.get(1));
+    cache.put(1, message(1, "one"), cache.stamp());
+    assertEquals("one", cache.get(1).message().message);
+    assertEquals(1, cache.hitCount());
+    assertEquals(1, cache.missCount());
+    assertEquals(1, cache.loadCount());
+  }
+
+  @Test
+  public void repeatedMissesLoadOnce() {
+    // Like two requests for the same id arriving before it has been loaded
+    assertNull(cache.get(1));
+    assertNull(cache.get(1));
+    cache.put(1, message(1, "one"), cache.stamp());
+    assertEquals(2, cache.missCount());
+    assertEquals(1, cache.loadCount());
+    assertEquals(0, cache.hitCount());
+  }
+
+  @Test
+  public void negativeEntriesExpireSooner() {
+    cache.put(1, message(1, "one"), cache.stamp());
+    cache.put(2, null, cache.stamp());
+    assertNotNull(cache.get(2));
+    assertNull(cache.get(2).message());
+
+    now += TimeUnit.SECONDS.toNanos(2);
+    assertNull(cache.get(2));
+    assertNotNull(cache.get(1));
+
+    now += TimeUnit.SECONDS.toNanos(10);
+    assertNull(cache.get(1));
+    assertEquals(2, cache.evictionCount());
+  }
+
+  @Test
+  public void evictsLeastRecentlyUsed() {
+    cache.put(1, message(1, "one"), cache.stamp());
+    cache.put(2, message(2, "two"), cache.stamp());
+    cache.get(1);
+    cache.put(3, message(3, "three"), cache.stamp());
+
+    assertEquals(2, cache.size());
+    assertNull(cache.get(2));
+    assertNotNull(cache.get(1));
+    assertNotNull(cache.get(3));
+    assertEquals(1, cache.evictionCount());
+  }
+
+  @Test
+  public void invalidateDiscardsConcurrentReads() {
+    cache.put(1, null, cache.stamp());
+    long stamp = cache.stamp();
+    cache.invalidate(1);
+    assertNull(cache.get(1));
+
+    // A value read before the invalidation should not be cached
+    cache.put(1, null, stamp);
+    assertNull(cache.get(1));
+  }
+
+  private Message message(long id, String text) {
+    Message message = new Message();
+    message.messageId = id;
+    message.message = text;
+    return message;
+  }
+}
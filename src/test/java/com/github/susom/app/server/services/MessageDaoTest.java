@@ -15,15 +15,25 @@
  */
 package com.github.susom.app.server.services;
 
+import com.github.susom.app.server.services.MessageDao.Message;
 import com.github.susom.database.Config;
 import com.github.susom.database.ConfigFrom;
 import com.github.susom.database.Database;
 import com.github.susom.database.DatabaseProvider;
 import com.github.susom.database.OptionsOverride;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -41,6 +51,85 @@ public void addMessage() {
     assertEquals("Tjenare", messageDao.findMessageById(id).message);
   }
 
+  @Test
+  public void addMessages() {
+    MessageDao messageDao = new MessageDao(dbp).withBatchSize(2);
+    List<Long> ids = messageDao.addMessages(Arrays.asList("One", "Two", "Three"));
+    assertEquals(3, ids.size());
+    assertEquals(3, new HashSet<>(ids).size());
+    assertEquals("One", messageDao.findMessageById(ids.get(0)).message);
+    assertEquals("Two", messageDao.findMessageById(ids.get(1)).message);
+    assertEquals("Three", messageDao.findMessageById(ids.get(2)).message);
+  }
+
+  @Test
+  public void findMessagesByIds() {
+    MessageDao messageDao = new MessageDao(dbp);
+    List<String> messages = new ArrayList<>();
+    for (int i = 0; i < 700; i++) {
+      messages.add("Message " + i);
+    }
+    List<Long> ids = new ArrayList<>(messageDao.addMessages(messages));
+    Collections.reverse(ids);
+    ids.add(1, -1L);
+    ids.add(ids.get(0));
+
+    List<Message> found = messageDao.findMessagesByIds(ids);
+    assertEquals(ids.size(), found.size());
+    assertEquals("Message 699", found.get(0).message);
+    assertNull(found.get(1));
+    assertEquals("Message 698", found.get(2).message);
+    assertEquals("Message 0", found.get(700).message);
+    assertEquals("Message 699", found.get(701).message);
+  }
+
+  @Test
+  public void reusesCacheLookupsAlreadyMade() {
+    MessageCache cache = new MessageCache(100, 60, 60, TimeUnit.SECONDS);
+    long id = new MessageDao(dbp).addMessage("Tjenare");
+    new MessageDao(dbp, cache).findMessageById(id);
+    assertEquals(1, cache.missCount());
+
+    // Like the secrets API, which checks the cache before going to the database
+    Map<Long, MessageCache.Lookup> checked = new HashMap<>();
+    checked.put(id, cache.get(id));
+    checked.put(-1L, cache.get(-1L));
+    List<Message> found = new MessageDao(dbp, cache).withCacheChecked(checked)
+        .findMessagesByIds(Arrays.asList(id, -1L));
+    assertEquals("Tjenare", found.get(0).message);
+    assertNull(found.get(1));
+    assertEquals(1, cache.hitCount());
+    assertEquals(2, cache.missCount());
+    assertEquals(2, cache.loadCount());
+  }
+
+  @Test
+  public void withoutCachingMissing() {
+    MessageCache cache = new MessageCache(100, 60, 60, TimeUnit.SECONDS);
+    new MessageDao(dbp, cache).withoutCachingMissing().findMessagesByIds(Arrays.asList(-1L, -2L));
+    assertNull(cache.get(-1L));
+    assertNull(cache.get(-2L));
+
+    new MessageDao(dbp, cache).findMessageById(-1L);
+    assertNotNull(cache.get(-1L));
+    assertNull(cache.get(-1L).message());
+  }
+
+  @Test
+  public void forEachMessageAfter() {
+    MessageDao messageDao = new MessageDao(dbp);
+    List<Long> ids = messageDao.addMessages(Arrays.asList("One", "Two", "Three"));
+
+    List<Message> page = new ArrayList<>();
+    assertEquals(2, messageDao.forEachMessageAfter(ids.get(0) - 1, 2, page::add));
+    assertEquals(ids.get(0), page.get(0).messageId);
+    assertEquals("Two", page.get(1).message);
+
+    page.clear();
+    assertEquals(1, messageDao.forEachMessageAfter(ids.get(1), 2, page::add));
+    assertEquals("Three", page.get(0).message);
+  }
+
   @Before
   public void setupJdbc() {
     dbp = createDatabaseProvider(new OptionsOverride() {
@@ -57,6 +146,11 @@ public Calendar calendarForTimestamps() {
     db = dbp.get();
   }
 
+  @After
+  public void closeJdbc() {
+    dbp.rollbackAndClose();
+  }
+
   protected DatabaseProvider createDatabaseProvider(OptionsOverride options) {
     String propertiesFile = System.getProperty("properties", "sample.properties");
     Config config = ConfigFrom.firstOf()
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2026 The Board of Trustees of The Leland Stanford Junior University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.susom.app.server.services;
+
+import com.github.susom.app.server.services.MessageSearchIndex.Results;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Locale;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MessageSearchIndexTest {
+  @Test
+  public void matchesAllWords() {
+    MessageSearchIndex index = new MessageSearchIndex();
+    index.add(1, "Hello world!");
+    index.add(2, "Hejsan du!");
+    index.add(3, "Hello there, WORLD-wide friends");
+    index.add(4, "hello");
+
+    Results results = index.search("world hello", 0, 10);
+    assertEquals(2, results.total);
+    assertEquals(2, results.hits.size());
+    assertEquals(1, results.hits.get(0).messageId);
+    assertEquals(3, results.hits.get(1).messageId);
+
+    assertEquals(0, index.search("hello nobody", 0, 10).total);
+    assertEquals(0, index.search("  !! ", 0, 10).total);
+  }
+
+  @Test
+  public void ranksByRelevanceThenNewest() {
+    MessageSearchIndex index = new MessageSearchIndex();
+    index.add(10, "cat");
+    index.add(11, "cat dog bird fish");
+    index.add(12, "cat cat");
+    index.add(13, "cat");
+
+    Results results = index.search("cat", 0, 10);
+    assertEquals(4, results.total);
+    assertEquals(12, results.hits.get(0).messageId);
+    assertEquals(13, results.hits.get(1).messageId);
+    assertEquals(10, results.hits.get(2).messageId);
+    assertEquals(11, results.hits.get(3).messageId);
+  }
+
+  @Test
+  public void pagesAndIgnoresDuplicates() {
+    MessageSearchIndex index = new MessageSearchIndex();
+    for (int i = 1; i <= 5000; i++) {
+      index.add(i, "message number " + i + (i % 3 == 0 ? " fizz" : ""));
+    }
+    index.add(3, "fizz fizz fizz");
+    assertEquals(5000, index.size());
+
+    Results first = index.search("fizz message", 0, 10);
+    Results second = index.search("fizz message", 10, 10);
+    assertEquals(1666, first.total);
+    assertEquals(10, first.hits.size());
+    assertEquals(4998, first.hits.get(0).messageId);
+    assertEquals(4968, second.hits.get(0).messageId);
+    assertEquals(0, index.search("fizz", 2000, 10).hits.size());
+  }
+
+  @Test
+  public void splitsOnNonWordCharacters() {
+    assertEquals(Arrays.asList("hej", "p\u00e5", "dig", "42"), MessageSearchIndex.terms("Hej p\u00e5-dig, 42!"));
+  }
+
+  @Test
+  public void termsDoNotDependOnDefaultLocale() {
+    Locale original = Locale.getDefault();
+    try {
+      // Turkish lower cases I to a dotless i
+      Locale.setDefault(new Locale("tr", "TR"));
+      assertEquals(Collections.singletonList("title"), MessageSearchIndex.terms("TITLE"));
+    } finally {
+      Locale.setDefault(original);
+    }
+  }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2026 The Board of Trustees of The Leland Stanford Junior University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.susom.app.server.services;
+
+import com.github.susom.database.DatabaseProvider;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MessageWriterTest {
+  private DatabaseProvider.Builder db;
+  private MessageWriter writer;
+
+  @Before
+  public void setupDatabase() {
+    db = DatabaseProvider.fromDriverManager("jdbc:hsqldb:mem:writer-" + System.nanoTime(), "SA", "");
+    new SchemaMigrations(db).migrate(true);
+  }
+
+  @After
+  public void closeWriter() {
+    if (writer != null) {
+      writer.close();
+    }
+  }
+
+  @Test
+  public void writesMessagesTogether() throws Exception {
+    writer = new MessageWriter(db, null, 10, 500, 100);
+
+    List<CompletableFuture<Long>> futures = new ArrayList<>();
+    for (int i = 0; i < 25; i++) {
+      futures.add(writer.add("Message " + i));
+    }
+    List<Long> ids = new ArrayList<>();
+    for (CompletableFuture<Long> future : futures) {
+      ids.add(future.get(10, TimeUnit.SECONDS));
+    }
+
+    assertEquals(25, new HashSet<>(ids).size());
+    assertEquals(3, writer.batchCount());
+    assertEquals(25, writer.writtenCount());
+  }
+
+  @Test
+  public void completesWithCommittedIds() throws Exception {
+    writer = new MessageWriter(db, null, 10, 0, 100);
+    List<List<Long>> notified = new CopyOnWriteArrayList<>();
+    writer.addListener(notified::add);
+
+    long first = writer.add("First").get(10, TimeUnit.SECONDS);
+    long second = writer.add("Second").get(10, TimeUnit.SECONDS);
+
+    // A separate transaction can see them, so they were committed
+    db.transact(dbs -> {
+      MessageDao messageDao = new MessageDao(dbs);
+      assertEquals("First", messageDao.findMessageById(first).message);
+      assertEquals("Second", messageDao.findMessageById(second).message);
+    });
+    // Listeners are called after the futures complete
+    waitFor(() -> notified.size() == 2);
+    assertEquals(Arrays.asList(Arrays.asList(first), Arrays.asList(second)), notified);
+  }
+
+  @Test
+  public void invalidatesCacheAfterCommit() throws Exception {
+    MessageCache cache = new MessageCache(100, 1, 1, TimeUnit.MINUTES);
+    writer = new MessageWriter(db, cache, 10, 0, 100);
+
+    // Somebody guessed the next id before it existed
+    long id = writer.add("First").get(10, TimeUnit.SECONDS);
+    cache.put(id + 1, null, cache.stamp());
+    assertNull(cache.get(id + 1).message());
+
+    long next = writer.add("Second").get(10, TimeUnit.SECONDS);
+    assertEquals(id + 1, next);
+    assertNull(cache.get(next));
+  }
+
+  @Test
+  public void rejectsWhenQueueIsFull() throws Exception {
+    writer = new MessageWriter(db, null, 1, 0, 2);
+    CountDownLatch release = blockWriter();
+
+    CompletableFuture<Long> queued1 = writer.add("Queued 1");
+    CompletableFuture<Long> queued2 = writer.add("Queued 2");
+    CompletableFuture<Long> rejected = writer.add("Rejected");
+    assertTrue(rejected.isCompletedExceptionally());
+    assertFailedWith(MessageWriter.QueueFullException.class, rejected);
+    assertEquals(1, writer.rejectedCount());
+
+    release.countDown();
+    assertNotNull(queued1.get(10, TimeUnit.SECONDS));
+    assertNotNull(queued2.get(10, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void closeWritesQueuedMessages() throws Exception {
+    writer = new MessageWriter(db, null, 1, 0, 10);
+    CountDownLatch release = blockWriter();
+    CompletableFuture<Long> queued = writer.add("Queued");
+
+    Thread closer = new Thread(writer::close);
+    closer.start();
+    waitFor(() -> closer.getState() == Thread.State.TIMED_WAITING);
+    assertFailedWith(MessageWriter.ClosedException.class, writer.add("Too late"));
+    assertFalse(queued.isDone());
+
+    release.countDown();
+    closer.join(10000);
+    assertFalse(closer.isAlive());
+    assertNotNull(queued.get(10, TimeUnit.SECONDS));
+    assertEquals(0, writer.queuedCount());
+    assertEquals(0, writer.rejectedCount());
+  }
+
+  /**
+   * Write one message and hold the writer thread in the listener until
+   * the returned latch is released.
+   */
+  private CountDownLatch blockWriter() throws Exception {
+    CountDownLatch blocked = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    writer.addListener(ids -> {
+      blocked.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+    writer.add("Blocker");
+    assertTrue(blocked.await(10, TimeUnit.SECONDS));
+    return release;
+  }
+
+  private static void assertFailedWith(Class<? extends Throwable> expected, CompletableFuture<Long> future)
+      throws Exception {
+    try {
+      future.get(10, TimeUnit.SECONDS);
+      fail("Expected " + expected.getSimpleName());
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause().toString(), expected.isInstance(e.getCause()));
+    }
+  }
+
+  private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 10000;
+    while (!condition.getAsBoolean()) {
+      assertTrue("Timed out waiting for condition", System.currentTimeMillis() < deadline);
+      Thread.sleep(10);
+    }
+  }
+}
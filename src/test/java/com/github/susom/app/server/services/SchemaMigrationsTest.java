@@ -0,0 +1,217 @@
+/*
+ * Copyright 2026 The Board of Trustees of The Leland Stanford Junior University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.susom.app.server.services;
+
+import com.github.susom.database.DatabaseProvider;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SchemaMigrationsTest {
+  private DatabaseProvider.Builder db;
+  private SchemaMigrations migrations;
+
+  @Before
+  public void setupDatabase() {
+    db = DatabaseProvider.fromDriverManager("jdbc:hsqldb:mem:migrations-" + System.nanoTime(), "SA", "");
+    migrations = new SchemaMigrations(db).withThrottle(100, 0);
+  }
+
+  @Test
+  public void migratesEmptyDatabase() {
+    SchemaMigrations.Status status = migrations.status();
+    assertEquals(0, status.databaseVersion);
+    assertFalse(status.compatible());
+
+    List<Integer> expected = new ArrayList<>();
+    for (int i = 1; i <= migrations.codeVersion(); i++) {
+      expected.add(i);
+    }
+    assertEquals(expected, migrations.migrate(true));
+
+    status = migrations.status();
+    assertEquals(migrations.codeVersion(), status.databaseVersion);
+    assertTrue(status.pending.isEmpty());
+    assertTrue(status.compatible());
+    assertEquals(Collections.emptyList(), migrations.migrate(true));
+  }
+
+  @Test
+  public void leavesOnlineMigrationsForLater() {
+    migrations.migrate(false);
+
+    SchemaMigrations.Status status = migrations.status();
+    assertTrue(status.compatible());
+    assertFalse(status.offlinePending());
+    assertFalse(status.pending.isEmpty());
+  }
+
+  @Test
+  public void adoptsDatabaseCreatedBeforeVersioning() {
+    migrations.migrate(true);
+    db.transact(dbs -> {
+      dbs.get().ddl("drop table app_schema_version").execute();
+      dbs.get().ddl("alter table app_message drop column message_length").execute();
+    });
+
+    SchemaMigrations.Status status = migrations.status();
+    assertEquals(1, status.databaseVersion);
+    assertTrue(status.offlinePending());
+    assertFalse(status.compatible());
+
+    // The index already exists, so this only needs to record it
+    List<Integer> applied = migrations.migrate(true);
+    assertFalse(applied.contains(1));
+    assertTrue(applied.contains(4));
+    assertEquals(migrations.codeVersion(), migrations.status().databaseVersion);
+    db.transact(dbs -> assertEquals(1, dbs.get().toSelect("select count(*) from app_replica_heartbeat")
+        .queryLongOrZero()));
+  }
+
+  @Test
+  public void refusesSchemaFromNewerCode() {
+    migrations.migrate(true);
+    db.transact(dbs -> dbs.get().toInsert("insert into app_schema_version (version_num, description,"
+        + " min_code_version, status, started_time) values (?,?,?,'done',?)").argInteger(999)
+        .argString("From the future").argInteger(999).argDateNowPerDb().insert(1));
+
+    SchemaMigrations.Status status = migrations.status();
+    assertTrue(status.codeTooOld());
+    assertFalse(status.compatible());
+  }
+
+  @Test
+  public void updatesInChunks() throws Exception {
+    migrations.migrate(true);
+    addMessages(250);
+
+    assertEquals(250, migrations.updateInChunks("app_message", "message=upper(message)",
+        "message <> upper(message)"));
+    assertEquals(0, migrations.updateInChunks("app_message", "message=upper(message)",
+        "message <> upper(message)"));
+    db.transact(dbs -> assertEquals(250, dbs.get().toSelect("select count(*) from app_message where message like ?")
+        .argString("MESSAGE %").queryLongOrZero()));
+  }
+
+  @Test
+  public void commitsEachChunkAndPauses() throws Exception {
+    migrations.migrate(true);
+    addMessages(250);
+
+    SchemaMigrations throttled = new SchemaMigrations(db).withThrottle(100, 200);
+    long start = System.nanoTime();
+    CompletableFuture<Long> updated = CompletableFuture.supplyAsync(() -> {
+      try {
+        return throttled.updateInChunks("app_message", "message=upper(message)", "message <> upper(message)");
+      } catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+    });
+
+    // Other transactions see each chunk as soon as it is done
+    Set<Long> seen = new ConcurrentSkipListSet<>();
+    while (!updated.isDone()) {
+      db.transact(dbs -> seen.add(dbs.get().toSelect("select count(*) from app_message where message like ?")
+          .argString("MESSAGE %").queryLongOrZero()));
+      Thread.sleep(10);
+    }
+    assertEquals(Long.valueOf(250), updated.get());
+    assertTrue(seen.toString(), seen.contains(100L));
+    assertTrue(seen.toString(), seen.contains(200L));
+    assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(400));
+  }
+
+  @Test
+  public void backfillsMessageLengthOnline() {
+    migrations.migrate(false);
+    assertEquals(Collections.singletonList(5), versionsOf(migrations.status().pending));
+
+    // Rows written before the column existed
+    addMessages(250);
+    db.transact(dbs -> dbs.get().toUpdate("update app_message set message_length=null").update(250));
+
+    assertEquals(Collections.singletonList(5), migrations.migrate(true));
+    db.transact(dbs -> assertEquals(250, dbs.get().toSelect("select count(*) from app_message"
+        + " where message_length=length(message)").queryLongOrZero()));
+  }
+
+  @Test
+  public void waitsForMigrationAppliedElsewhere() throws Exception {
+    migrations.migrate(true);
+    setStatus(5, "running");
+
+    CompletableFuture<List<Integer>> applied = CompletableFuture.supplyAsync(() ->
+        new SchemaMigrations(db).withClaimWait(10000, 20).migrate(true));
+    Thread.sleep(200);
+    assertFalse(applied.isDone());
+
+    setStatus(5, "done");
+    assertEquals(Collections.emptyList(), applied.get(10, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void claimsMigrationAbandonedElsewhere() throws Exception {
+    migrations.migrate(true);
+    setStatus(5, "running");
+
+    CompletableFuture<List<Integer>> applied = CompletableFuture.supplyAsync(() ->
+        new SchemaMigrations(db).withClaimWait(10000, 20).migrate(true));
+    Thread.sleep(200);
+    assertFalse(applied.isDone());
+
+    // The other node failed and released its claim
+    db.transact(dbs -> dbs.get().toDelete("delete from app_schema_version where version_num=5").update(1));
+    assertEquals(Collections.singletonList(5), applied.get(10, TimeUnit.SECONDS));
+    assertEquals(migrations.codeVersion(), migrations.status().databaseVersion);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void givesUpWaitingEventually() {
+    migrations.migrate(true);
+    setStatus(5, "running");
+
+    new SchemaMigrations(db).withClaimWait(100, 20).migrate(true);
+  }
+
+  private void addMessages(int count) {
+    List<String> messages = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      messages.add("message " + i);
+    }
+    db.transact(dbs -> new MessageDao(dbs).addMessages(messages));
+  }
+
+  private void setStatus(int version, String status) {
+    db.transact(dbs -> dbs.get().toUpdate("update app_schema_version set status=?, started_time=?"
+        + " where version_num=?").argString(status).argDateNowPerDb().argInteger(version).update(1));
+  }
+
+  private List<Integer> versionsOf(List<SchemaMigrations.Migration> pending) {
+    List<Integer> versions = new ArrayList<>();
+    for (SchemaMigrations.Migration migration : pending) {
+      versions.add(migration.version);
+    }
+    return versions;
+  }
+}